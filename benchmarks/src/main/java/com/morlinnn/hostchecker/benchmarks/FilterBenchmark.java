@@ -0,0 +1,64 @@
+package com.morlinnn.hostchecker.benchmarks;
+
+import com.morlinnn.hostchecker.AddressFilter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link AddressFilter#filterAddress(String)} 在不同规则数量和规则类型下的开销, 每次调用检查 1024 个地址
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FilterBenchmark {
+    @Param({"1", "100", "10000"})
+    int rules;
+
+    @Param({"cidr", "exact", "regexp"})
+    String kind;
+
+    private AddressFilter filter;
+    private String[] addresses;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(rules);
+        Set<String> addressRules = new HashSet<>();
+        Set<String> regexpRules = new HashSet<>();
+        while (addressRules.size() + regexpRules.size() < rules) {
+            int a = random.nextInt(223) + 1;
+            int b = random.nextInt(256);
+            switch (kind) {
+                case "cidr":
+                    addressRules.add(a + "." + b + ".0.0/16");
+                    break;
+                case "exact":
+                    addressRules.add(HostsData.address(random));
+                    break;
+                default:
+                    regexpRules.add(a + "\\." + b + "\\.\\d+\\.\\d+");
+            }
+        }
+        filter = new AddressFilter(addressRules, regexpRules);
+
+        addresses = new String[1024];
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = HostsData.address(random);
+        }
+    }
+
+    @Benchmark
+    public void filterAddress(Blackhole blackhole) {
+        for (String address : addresses) {
+            blackhole.consume(filter.filterAddress(address));
+        }
+    }
+}
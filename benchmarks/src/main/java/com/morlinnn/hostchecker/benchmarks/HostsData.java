@@ -0,0 +1,63 @@
+package com.morlinnn.hostchecker.benchmarks;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+
+/**
+ * 生成基准测试使用的合成 Host 内容, 相同的参数总是生成相同的内容
+ */
+final class HostsData {
+    private HostsData() {
+    }
+
+    /**
+     * 生成的内容中约 5% 为注释行, 约 2% 为回环地址, 其余地址中约一半为 0.0.0.0
+     * @param lines 行数
+     * @return Host 内容
+     */
+    static String generate(int lines) {
+        Random random = new Random(lines);
+        StringBuilder builder = new StringBuilder(lines * 32);
+        for (int i = 0; i < lines; i++) {
+            int kind = random.nextInt(100);
+            if (kind < 5) {
+                builder.append("# comment ").append(i);
+            } else if (kind < 7) {
+                builder.append("127.0.0.1 localhost").append(i).append(".test");
+            } else if (kind < 50) {
+                builder.append("0.0.0.0 ads").append(i).append(".example.test");
+            } else {
+                builder.append(address(random)).append('\t').append("host").append(i).append(".example.test");
+                if (kind > 90) builder.append(" # mirror");
+            }
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return 随机的 IPv4 或 IPv6 地址
+     */
+    static String address(Random random) {
+        if (random.nextInt(10) == 0) {
+            return "2001:db8:" + Integer.toHexString(random.nextInt(0x10000)) + "::" + Integer.toHexString(random.nextInt(0x10000));
+        }
+        return (random.nextInt(223) + 1) + "." + random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256);
+    }
+
+    /**
+     * 丢弃 HostChecker 打印的进度信息, 避免控制台输出影响结果
+     */
+    static void quiet() {
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+    }
+}
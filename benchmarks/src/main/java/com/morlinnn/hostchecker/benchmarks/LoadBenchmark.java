@@ -0,0 +1,56 @@
+package com.morlinnn.hostchecker.benchmarks;
+
+import com.morlinnn.hostchecker.AddressFilter;
+import com.morlinnn.hostchecker.HostChecker;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 加载与行解析: 从字符串构造 {@link HostChecker}, 以及逐行调用 {@link HostChecker#readValidString(String)}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LoadBenchmark {
+    @Param({"1000", "100000", "1000000", "10000000"})
+    int lines;
+
+    private String hosts;
+    private String[] hostLines;
+    private Path dir;
+    private HostChecker parser;
+
+    @Setup
+    public void setup() throws IOException {
+        HostsData.quiet();
+        hosts = HostsData.generate(lines);
+        hostLines = hosts.split("\n");
+        dir = Files.createTempDirectory("hostchecker-bench");
+        parser = new HostChecker("", dir.toString(), "hosts", AddressFilter.getLoopbackFilter());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public HostChecker load() throws IOException {
+        return new HostChecker(hosts, dir.toString(), "hosts", AddressFilter.getLoopbackFilter());
+    }
+
+    @Benchmark
+    public void readValidString(Blackhole blackhole) {
+        for (String line : hostLines) {
+            blackhole.consume(parser.readValidString(line));
+        }
+    }
+}
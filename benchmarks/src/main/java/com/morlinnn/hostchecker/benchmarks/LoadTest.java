@@ -0,0 +1,252 @@
+package com.morlinnn.hostchecker.benchmarks;
+
+import com.morlinnn.hostchecker.AdaptiveProbeEngine;
+import com.morlinnn.hostchecker.AddressFilter;
+import com.morlinnn.hostchecker.HedgedProbeEngine;
+import com.morlinnn.hostchecker.HostChecker;
+import com.morlinnn.hostchecker.LatencyHistogram;
+import com.morlinnn.hostchecker.ProbeBudget;
+import com.morlinnn.hostchecker.ProbeEngine;
+import com.morlinnn.hostchecker.ProbeMetrics;
+import com.morlinnn.hostchecker.ProbeReporter;
+import com.morlinnn.hostchecker.SimulatedProber;
+import com.morlinnn.hostchecker.ThreadPoolProbeEngine;
+import com.morlinnn.hostchecker.VirtualThreadProbeEngine;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * 端到端压力测试: 生成合成 Host 文件, 使用 {@link SimulatedProber} 完成加载, 探测, 移除, 保存,
+ * 输出各阶段的吞吐量, 探测的尾延迟和内存占用, 用于离线评估调度的改动
+ * <pre>
+ * java -cp target/benchmarks.jar com.morlinnn.hostchecker.benchmarks.LoadTest [行数] [线程数] [timeScale] [调度方式] [指标文件]
+ * </pre>
+ * 默认 1000000 行, 64 个线程, timeScale 为 0 (不等待, 只测量调度开销), 调度方式为 thread:
+ * <ul>
+ *     <li>thread: 固定线程池, {@link HostChecker#getPingTimeoutLines(ProbeEngine, int)}</li>
+ *     <li>adaptive: 线程池外加 {@link AdaptiveProbeEngine}, 并发数在 线程数 / 4 到 线程数 之间调整</li>
+ *     <li>budget: 线程池, 使用 {@link ProbeBudget} 的窗口调度, 预算足够所有地址完成</li>
+ *     <li>hedged: 两个线程池组成的 {@link HedgedProbeEngine}</li>
+ *     <li>stream: 线程池, 通过 {@link HostChecker#getPingTimeoutLinesAsync(ProbeEngine, int)} 的结果流调度</li>
+ *     <li>virtual: 每个探测一个虚拟线程 (JDK 21+)</li>
+ * </ul>
+ * 延迟为中位数 80ms 的对数正态分布, 约 10% 的地址超时, 1% 的地址抛出异常, 超时时间 1000ms。
+ * 同时输出模拟的延迟和测得的延迟, timeScale 为 0 时测得的延迟只是排队和调度的时间
+ */
+public class LoadTest {
+    private static final int TIMEOUT = 1000;
+    private static final long SEED = 42;
+    private static final long BUDGET_MILLIS = 24 * 3600 * 1000L;
+    private static final long HEDGE_DELAY = 200;
+
+    public static void main(String[] args) throws Exception {
+        int lineCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        double timeScale = args.length > 2 ? Double.parseDouble(args[2]) : 0;
+        String scheduler = args.length > 3 ? args[3] : "thread";
+        String metricsFile = args.length > 4 ? args[4] : null;
+        if (!Arrays.asList("thread", "adaptive", "budget", "hedged", "stream", "virtual").contains(scheduler)) {
+            System.out.println("调度方式只能是 thread, adaptive, budget, hedged, stream 或 virtual");
+            return;
+        }
+        if (scheduler.equals("virtual") && !VirtualThreadProbeEngine.isSupported()) {
+            System.out.println("virtual 需要 JDK 21 及以上");
+            return;
+        }
+
+        PrintStream out = System.out;
+        Path dir = Files.createTempDirectory("hostchecker-load");
+        try {
+            long generateStart = System.nanoTime();
+            long fileSize = generate(dir.resolve("hosts"), lineCount);
+            out.println(
+                    lineCount + " lines (" + fileSize / 1024 / 1024 + "MB) generated in "
+                            + (System.nanoTime() - generateStart) / 1_000_000 + "ms, "
+                            + threads + " threads, timeScale " + timeScale + ", " + scheduler + "\n"
+            );
+
+            SimulatedProber prober = new SimulatedProber(SEED, SimulatedProber.Latency.logNormal(80, 1), 0.1, 0.01);
+            prober.setTimeScale(timeScale);
+            resetPeakUsage();
+            // HostChecker 每个移除的行都会输出一行, 运行时丢弃
+            System.setOut(new PrintStream(new OutputStream() {
+                @Override
+                public void write(int b) {
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                }
+            }));
+            HostChecker checker;
+            long retained;
+            Set<Integer> failed;
+            long wallStart = System.nanoTime();
+            try {
+                checker = new HostChecker(dir.toString(), "hosts", AddressFilter.getLoopbackFilter());
+                checker.setReportMode(ProbeReporter.Mode.QUIET);
+                checker.setBackup(false);
+                // 测量保留的内存需要 GC, 不计入总时间
+                long gcStart = System.nanoTime();
+                retained = usedHeapAfterGc();
+                wallStart += System.nanoTime() - gcStart;
+                try (ProbeEngine engine = engine(scheduler, threads, prober)) {
+                    failed = probe(checker, engine, scheduler, threads);
+                }
+                checker.removeFromIndexes(failed);
+                checker.save();
+            } finally {
+                System.setOut(out);
+            }
+            long wallMillis = (System.nanoTime() - wallStart) / 1_000_000;
+
+            ProbeMetrics metrics = checker.getMetrics();
+            int addresses = metrics.getProbeAddresses();
+            report(out, "load", metrics.getPhaseMillis(ProbeMetrics.Phase.LOAD), lineCount, "lines");
+            report(out, "filter", metrics.getPhaseMillis(ProbeMetrics.Phase.FILTER), lineCount, "lines");
+            report(out, "probe", metrics.getPhaseMillis(ProbeMetrics.Phase.PROBE), addresses, "addresses");
+            report(out, "remove", metrics.getPhaseMillis(ProbeMetrics.Phase.REMOVE), failed.size(), "lines");
+            report(out, "save", metrics.getPhaseMillis(ProbeMetrics.Phase.SAVE), lineCount, "lines");
+            out.println(String.format(Locale.ROOT, "total: %dms, %d lines/s", wallMillis, lineCount * 1000L / Math.max(1, wallMillis)));
+            out.println(
+                    "\n" + metrics.getProbeLines() + " lines probed, " + addresses + " distinct addresses, "
+                            + prober.getProbeCount() + " probes, " + failed.size() + " lines removed"
+            );
+            out.println("\nsimulated latency:");
+            for (ProbeMetrics.Outcome outcome : ProbeMetrics.Outcome.values()) {
+                if (outcome != ProbeMetrics.Outcome.ERROR) latency(out, outcome, prober.getSimulatedLatency(outcome));
+            }
+            out.println(timeScale > 0
+                    ? "\nmeasured latency (simulated latency * timeScale, queueing and scheduling):"
+                    : "\nmeasured latency (queueing and scheduling only, timeScale is 0):");
+            for (ProbeMetrics.Outcome outcome : ProbeMetrics.Outcome.values()) {
+                latency(out, outcome, metrics.getLatency(outcome));
+            }
+            out.println(
+                    "\nheap retained after load " + retained / 1024 / 1024 + "MB, peak heap "
+                            + peakHeapUsage() / 1024 / 1024 + "MB"
+            );
+            if (metricsFile != null) metrics.writeJson(Paths.get(metricsFile));
+        } finally {
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    private static ProbeEngine engine(String scheduler, int threads, SimulatedProber prober) {
+        if (scheduler.equals("adaptive")) {
+            return new AdaptiveProbeEngine(new ThreadPoolProbeEngine(threads, prober), Math.max(1, threads / 4), threads);
+        } else if (scheduler.equals("hedged")) {
+            return new HedgedProbeEngine(
+                    Arrays.asList(new ThreadPoolProbeEngine(threads, prober), new ThreadPoolProbeEngine(threads, prober)),
+                    HEDGE_DELAY
+            );
+        } else if (scheduler.equals("virtual")) {
+            return new VirtualThreadProbeEngine(threads, prober);
+        }
+        return new ThreadPoolProbeEngine(threads, prober);
+    }
+
+    private static Set<Integer> probe(HostChecker checker, ProbeEngine engine, String scheduler, int threads) throws Exception {
+        if (scheduler.equals("budget")) {
+            return checker.getPingTimeoutLines(engine, TIMEOUT, new ProbeBudget(BUDGET_MILLIS, threads, null));
+        } else if (scheduler.equals("stream")) {
+            return checker.getPingTimeoutLinesAsync(engine, TIMEOUT).get();
+        }
+        return checker.getPingTimeoutLines(engine, TIMEOUT);
+    }
+
+    private static void latency(PrintStream out, ProbeMetrics.Outcome outcome, LatencyHistogram latency) {
+        out.println(String.format(
+                Locale.ROOT,
+                "%-9s count %d, p50 %.1fms, p99 %.1fms, p99.9 %.1fms, max %.1fms",
+                outcome.name().toLowerCase(Locale.ROOT),
+                latency.getCount(),
+                latency.getPercentile(50),
+                latency.getPercentile(99),
+                latency.getPercentile(99.9),
+                latency.getMax()
+        ));
+    }
+
+    /**
+     * 生成合成的 Host 文件, 相同的行数总是生成相同的内容
+     * <p>约 5% 为注释行, 2% 为回环地址, 其余的地址从行数 / 4 个地址中选取, 使多个行共用同一地址</p>
+     * @return 文件大小 (字节)
+     */
+    static long generate(Path file, int lineCount) throws IOException {
+        Random random = new Random(lineCount);
+        int poolSize = Math.max(1, lineCount / 4);
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < lineCount; i++) {
+                int kind = random.nextInt(100);
+                if (kind < 5) {
+                    writer.write("# comment " + i);
+                } else if (kind < 7) {
+                    writer.write("127.0.0.1 localhost" + i + ".test");
+                } else {
+                    int address = random.nextInt(poolSize);
+                    writer.write(
+                            "10." + (address >>> 16 & 0xff) + "." + (address >>> 8 & 0xff) + "." + (address & 0xff)
+                                    + "\thost" + i + ".example.test"
+                    );
+                }
+                writer.newLine();
+            }
+        }
+        return Files.size(file);
+    }
+
+    private static void report(PrintStream out, String phase, double millis, long count, String unit) {
+        out.println(String.format(
+                Locale.ROOT,
+                "%-7s %9.1fms, %d %s/s",
+                phase + ":",
+                millis,
+                millis <= 0 ? 0 : (long) (count * 1000 / millis),
+                unit
+        ));
+    }
+
+    private static long usedHeapAfterGc() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void resetPeakUsage() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) pool.resetPeakUsage();
+        }
+    }
+
+    /**
+     * @return 各堆内存池峰值之和, 各池的峰值不一定同时出现, 是峰值的上界
+     */
+    private static long peakHeapUsage() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+}
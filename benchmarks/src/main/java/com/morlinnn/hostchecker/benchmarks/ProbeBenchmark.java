@@ -0,0 +1,61 @@
+package com.morlinnn.hostchecker.benchmarks;
+
+import com.morlinnn.hostchecker.AddressFilter;
+import com.morlinnn.hostchecker.HostChecker;
+import com.morlinnn.hostchecker.ProbeEngine;
+import com.morlinnn.hostchecker.Prober;
+import com.morlinnn.hostchecker.SimulatedProber;
+import com.morlinnn.hostchecker.ThreadPoolProbeEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link HostChecker#getPingTimeoutLines(ProbeEngine, int)} 的调度开销,
+ * 使用确定性的模拟探测 {@link SimulatedProber}: 种子和地址决定是否超时和延迟, 不访问网络也不等待
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ProbeBenchmark {
+    /**
+     * 约 10% 的地址超时, 延迟在 0 ~ 200ms 之间均匀分布, 不等待
+     */
+    static final Prober SIMULATED = new SimulatedProber(42, SimulatedProber.Latency.uniform(0, 200), 0.1, 0);
+
+    @Param({"1000", "100000"})
+    int lines;
+
+    @Param({"8", "64"})
+    int threads;
+
+    private Path dir;
+    private HostChecker checker;
+    private ProbeEngine engine;
+
+    @Setup
+    public void setup() throws IOException {
+        HostsData.quiet();
+        dir = Files.createTempDirectory("hostchecker-bench");
+        checker = new HostChecker(HostsData.generate(lines), dir.toString(), "hosts", AddressFilter.getLoopbackFilter());
+        engine = new ThreadPoolProbeEngine(threads, SIMULATED);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        engine.close();
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public Set<Integer> getPingTimeoutLines() throws InterruptedException {
+        return checker.getPingTimeoutLines(engine, 1000);
+    }
+}
@@ -0,0 +1,63 @@
+package com.morlinnn.hostchecker.benchmarks;
+
+import com.morlinnn.hostchecker.AddressFilter;
+import com.morlinnn.hostchecker.HostChecker;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link HostChecker#removeFromIndexes(Set)} 在不同移除比例下的开销, 每次调用前重新加载内容
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class RemoveBenchmark {
+    @Param({"1000", "100000", "1000000", "10000000"})
+    int lines;
+
+    @Param({"0.01", "0.1", "0.5"})
+    double fraction;
+
+    private String hosts;
+    private Path dir;
+    private Set<Integer> removeIndexes;
+    private HostChecker checker;
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws IOException {
+        HostsData.quiet();
+        hosts = HostsData.generate(lines);
+        dir = Files.createTempDirectory("hostchecker-bench");
+        Random random = new Random(lines);
+        removeIndexes = new HashSet<>();
+        for (int line = 1; line <= lines; line++) {
+            if (random.nextDouble() < fraction) removeIndexes.add(line);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void setupInvocation() throws IOException {
+        checker = new HostChecker(hosts, dir.toString(), "hosts", AddressFilter.getLoopbackFilter());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public HostChecker removeFromIndexes() {
+        checker.removeFromIndexes(removeIndexes);
+        return checker;
+    }
+}
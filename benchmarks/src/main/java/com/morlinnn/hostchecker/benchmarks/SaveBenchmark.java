@@ -0,0 +1,76 @@
+package com.morlinnn.hostchecker.benchmarks;
+
+import com.morlinnn.hostchecker.AddressFilter;
+import com.morlinnn.hostchecker.HostChecker;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * {@link HostChecker#save()} 的开销, 每次调用前重新写入原文件, 加载并移除约 1% 的行
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SaveBenchmark {
+    @Param({"1000", "100000", "1000000", "10000000"})
+    int lines;
+
+    private byte[] hosts;
+    private Path dir;
+    private Set<Integer> removeIndexes;
+    private HostChecker checker;
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws IOException {
+        HostsData.quiet();
+        hosts = HostsData.generate(lines).getBytes(StandardCharsets.UTF_8);
+        dir = Files.createTempDirectory("hostchecker-bench");
+        Random random = new Random(lines);
+        removeIndexes = new HashSet<>();
+        for (int line = 1; line <= lines; line++) {
+            if (random.nextInt(100) == 0) removeIndexes.add(line);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void setupInvocation() throws IOException {
+        clean();
+        Files.write(dir.resolve("hosts"), hosts);
+        checker = new HostChecker(dir.toString(), "hosts", AddressFilter.getLoopbackFilter());
+        checker.removeFromIndexes(removeIndexes);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        clean();
+        Files.deleteIfExists(dir);
+    }
+
+    /**
+     * 删除原文件, 新文件和所有备份
+     */
+    private void clean() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public void save() throws IOException {
+        checker.save();
+    }
+}
@@ -0,0 +1,357 @@
+package com.morlinnn.hostchecker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 自适应并发数的探测引擎, 使用 AIMD (加性增, 乘性减) 调整同时交给内部引擎的探测数量
+ * <p>每完成一个窗口 (不少于当前并发数) 的探测后评估一次:</p>
+ * <ul>
+ *     <li>超时率比基线高出 {@link #TIMEOUT_TOLERANCE} 以上: 并发数减半, 通常是防火墙或网络开始丢弃探测</li>
+ *     <li>超时率和延迟都稳定: 并发数增加, 第一次减少之前翻倍, 之后每次加 1</li>
+ *     <li>延迟超过基线的 {@link #LATENCY_FACTOR} 倍: 保持不变</li>
+ * </ul>
+ * 基线为正常窗口的指数加权平均, 地址本身失效造成的稳定超时率不会触发减少。
+ * 内部引擎自身的并发上限需要不小于 maxLimit
+ * <p>超时的结果在所在窗口评估后才返回: 触发减少的窗口中的超时, 以及减少之前开始的探测的超时, 很可能是拥塞造成的,
+ * 以减少后的并发数优先重新探测一次, 再次超时才返回超时; 否则直接返回超时。
+ * 所有探测都完成时, 未评估的窗口中的超时直接返回</p>
+ */
+public class AdaptiveProbeEngine implements ProbeEngine {
+    /**
+     * 超时率超过基线多少时减少并发数
+     */
+    public static final double TIMEOUT_TOLERANCE = 0.1;
+    /**
+     * 平均延迟超过基线多少倍时不再增加并发数
+     */
+    public static final double LATENCY_FACTOR = 1.5;
+    private static final double DECREASE_FACTOR = 0.5;
+    private static final double EWMA_WEIGHT = 0.2;
+    private static final int MIN_WINDOW = 16;
+    // 摘要中最多列出的减少记录
+    private static final int SUMMARY_DECREASES = 20;
+
+    private final ProbeEngine engine;
+    private final int minLimit;
+    private final int maxLimit;
+    private final Queue<Pending> pending = new ConcurrentLinkedQueue<>();
+    // 因拥塞超时而重新探测的请求, 优先于 pending 开始
+    private final Queue<Pending> retrying = new ConcurrentLinkedQueue<>();
+    // 保证同一时间只有一个线程分发, 并且完成回调中的分发不会递归
+    private final AtomicInteger dispatching = new AtomicInteger();
+    private final long startNanos = System.nanoTime();
+
+    // 以下字段由 this 保护
+    private int limit;
+    private int peakLimit;
+    private int inFlight = 0;
+    private boolean slowStart = true;
+    // 每次减少后加 1, 减少之前开始的探测不再计入窗口, 避免同一次拥塞连续触发减少
+    private int epoch = 0;
+    private int windowCompleted = 0;
+    private int windowTimeouts = 0;
+    private int windowReachable = 0;
+    private long windowLatencyNanos = 0;
+    // 当前窗口中超时的探测, 评估后决定重试还是返回超时
+    private List<Pending> windowTimedOut = new ArrayList<>();
+    private double baselineTimeoutRate = -1;
+    private double baselineLatencyNanos = -1;
+    private int increases = 0;
+    private int holds = 0;
+    private int retries = 0;
+    private final List<Decision> decreases = new ArrayList<>();
+
+    /**
+     * @param engine 实际进行探测的引擎
+     * @param minLimit 并发数下限, 也是初始并发数
+     * @param maxLimit 并发数上限
+     */
+    public AdaptiveProbeEngine(ProbeEngine engine, int minLimit, int maxLimit) {
+        if (minLimit < 1 || maxLimit < minLimit) throw new IllegalArgumentException("Invalid limits " + minLimit + " " + maxLimit);
+        this.engine = engine;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = minLimit;
+        this.peakLimit = minLimit;
+    }
+
+    @Override
+    public CompletableFuture<ProbeResult> probe(String address, int timeout) {
+        Pending request = new Pending(address, timeout);
+        pending.offer(request);
+        dispatch();
+        return request.future;
+    }
+
+    private void dispatch() {
+        if (dispatching.getAndIncrement() != 0) return;
+        do {
+            while (true) {
+                Pending request;
+                synchronized (this) {
+                    if (inFlight >= limit) break;
+                    // 跳过重新排队后被取消的探测
+                    do {
+                        request = retrying.poll();
+                        if (request == null) request = pending.poll();
+                    } while (request != null && request.future.isDone());
+                    if (request == null) break;
+                    inFlight++;
+                    request.epoch = epoch;
+                }
+                start(request);
+            }
+        } while (dispatching.decrementAndGet() != 0);
+    }
+
+    private void start(Pending request) {
+        long started = System.nanoTime();
+        CompletableFuture<ProbeResult> future;
+        try {
+            future = engine.probe(request.address, request.timeout);
+        } catch (RuntimeException e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+        // 取消时同时取消正在进行的探测, 释放内部引擎中的位置
+        CompletableFuture<ProbeResult> inner = future;
+        request.future.whenComplete((result, e) -> {
+            if (request.future.isCancelled()) inner.cancel(true);
+        });
+        future.whenComplete((result, e) -> {
+            List<Pending> timedOut = completed(request, result, e, System.nanoTime() - started);
+            if (e != null) {
+                request.future.completeExceptionally(e);
+            } else if (result.isReachable()) {
+                request.future.complete(result);
+            }
+            for (Pending released : timedOut) {
+                released.future.complete(ProbeResult.timeout());
+            }
+            dispatch();
+        });
+    }
+
+    /**
+     * @return 可以返回超时的探测
+     */
+    private synchronized List<Pending> completed(Pending request, ProbeResult result, Throwable e, long nanos) {
+        inFlight--;
+        List<Pending> released = new ArrayList<>();
+        boolean timedOut = e == null && !result.isReachable();
+        if (request.epoch != epoch) {
+            // 减少之前开始的探测, 超时很可能是拥塞造成的
+            if (timedOut) retryOrRelease(request, released);
+        } else {
+            // 出错的探测既不算超时也不算成功, 只计入窗口大小
+            windowCompleted++;
+            if (e == null) {
+                if (result.isReachable()) {
+                    windowReachable++;
+                    windowLatencyNanos += nanos;
+                } else {
+                    windowTimeouts++;
+                    windowTimedOut.add(request);
+                }
+            }
+            if (windowCompleted >= Math.max(limit, MIN_WINDOW)) evaluate(released);
+        }
+        if (inFlight == 0 && retrying.isEmpty() && pending.isEmpty()) {
+            // 没有更多的探测来填满窗口
+            released.addAll(windowTimedOut);
+            windowTimedOut.clear();
+        }
+        return released;
+    }
+
+    /**
+     * 第一次因拥塞超时的探测重新排队, 已经重试过的返回超时
+     */
+    private void retryOrRelease(Pending request, List<Pending> released) {
+        if (request.retried) {
+            released.add(request);
+            return;
+        }
+        request.retried = true;
+        retries++;
+        retrying.offer(request);
+    }
+
+    private void evaluate(List<Pending> released) {
+        double timeoutRate = (double) windowTimeouts / windowCompleted;
+        double latency = windowReachable == 0 ? -1 : (double) windowLatencyNanos / windowReachable;
+        if (baselineTimeoutRate < 0) {
+            baselineTimeoutRate = timeoutRate;
+            if (latency >= 0) baselineLatencyNanos = latency;
+        }
+
+        if (timeoutRate > baselineTimeoutRate + TIMEOUT_TOLERANCE) {
+            int next = Math.max(minLimit, (int) (limit * DECREASE_FACTOR));
+            decreases.add(new Decision(elapsedMillis(), limit, next, timeoutRate, baselineTimeoutRate));
+            limit = next;
+            slowStart = false;
+            epoch++;
+            for (Pending request : windowTimedOut) {
+                retryOrRelease(request, released);
+            }
+        } else if (latency >= 0 && baselineLatencyNanos >= 0 && latency > baselineLatencyNanos * LATENCY_FACTOR) {
+            holds++;
+            released.addAll(windowTimedOut);
+            updateBaseline(timeoutRate, latency);
+        } else {
+            int next = Math.min(maxLimit, slowStart ? limit * 2 : limit + 1);
+            if (next != limit) increases++;
+            limit = next;
+            peakLimit = Math.max(peakLimit, limit);
+            released.addAll(windowTimedOut);
+            updateBaseline(timeoutRate, latency);
+        }
+
+        windowTimedOut = new ArrayList<>();
+        windowCompleted = 0;
+        windowTimeouts = 0;
+        windowReachable = 0;
+        windowLatencyNanos = 0;
+    }
+
+    private void updateBaseline(double timeoutRate, double latency) {
+        baselineTimeoutRate += (timeoutRate - baselineTimeoutRate) * EWMA_WEIGHT;
+        if (latency < 0) return;
+        baselineLatencyNanos = baselineLatencyNanos < 0
+                ? latency
+                : baselineLatencyNanos + (latency - baselineLatencyNanos) * EWMA_WEIGHT;
+    }
+
+    private long elapsedMillis() {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    /**
+     * @return 当前的并发数
+     */
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return 运行中达到的最大并发数
+     */
+    public synchronized int getPeakLimit() {
+        return peakLimit;
+    }
+
+    /**
+     * @return 因拥塞超时而重新探测的次数
+     */
+    public synchronized int getRetries() {
+        return retries;
+    }
+
+    /**
+     * @return 所有减少并发数的决定
+     */
+    public synchronized List<Decision> getDecreases() {
+        return new ArrayList<>(decreases);
+    }
+
+    /**
+     * 输出并发数的调整摘要
+     */
+    public synchronized void printSummary() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("adaptive concurrency: limit ").append(minLimit).append(" -> ").append(limit)
+                .append(" (peak ").append(peakLimit).append(", max ").append(maxLimit).append("), ")
+                .append(increases).append(" increases, ")
+                .append(decreases.size()).append(" decreases, ")
+                .append(holds).append(" holds on latency, ")
+                .append(retries).append(" timeouts retried after decreases");
+        for (int i = 0; i < decreases.size() && i < SUMMARY_DECREASES; i++) {
+            builder.append("\n    ").append(decreases.get(i));
+        }
+        if (decreases.size() > SUMMARY_DECREASES) {
+            builder.append("\n    ... ").append(decreases.size() - SUMMARY_DECREASES).append(" more");
+        }
+        System.out.println(builder);
+    }
+
+    @Override
+    public void close() {
+        engine.close();
+    }
+
+    /**
+     * 一次减少并发数的决定
+     */
+    public static class Decision {
+        private final long elapsedMillis;
+        private final int from;
+        private final int to;
+        private final double timeoutRate;
+        private final double baselineTimeoutRate;
+
+        Decision(long elapsedMillis, int from, int to, double timeoutRate, double baselineTimeoutRate) {
+            this.elapsedMillis = elapsedMillis;
+            this.from = from;
+            this.to = to;
+            this.timeoutRate = timeoutRate;
+            this.baselineTimeoutRate = baselineTimeoutRate;
+        }
+
+        /**
+         * @return 从引擎创建到做出决定的时间 (ms)
+         */
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        public int getFrom() {
+            return from;
+        }
+
+        public int getTo() {
+            return to;
+        }
+
+        /**
+         * @return 触发减少的窗口的超时率
+         */
+        public double getTimeoutRate() {
+            return timeoutRate;
+        }
+
+        /**
+         * @return 当时的基线超时率
+         */
+        public double getBaselineTimeoutRate() {
+            return baselineTimeoutRate;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    Locale.ROOT,
+                    "at %dms: %d -> %d, timeout rate %.2f (baseline %.2f)",
+                    elapsedMillis, from, to, timeoutRate, baselineTimeoutRate
+            );
+        }
+    }
+
+    private static class Pending {
+        final String address;
+        final int timeout;
+        final CompletableFuture<ProbeResult> future = new CompletableFuture<>();
+        int epoch;
+        boolean retried = false;
+
+        Pending(String address, int timeout) {
+            this.address = address;
+            this.timeout = timeout;
+        }
+    }
+}
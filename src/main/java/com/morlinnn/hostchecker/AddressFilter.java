@@ -1,22 +1,51 @@
 package com.morlinnn.hostchecker;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+/**
+ * 地址过滤, 在构造时编译所有规则
+ * <ul>
+ *     <li>地址列表中的 IP 地址和 CIDR 地址段 (例如 127.0.0.0/8, ::1/128) 放入按位的前缀树,
+ *     查询开销与规则数量无关</li>
+ *     <li>其它地址列表中的字符串使用精确匹配, 放入按字符哈希的开放寻址表, 查询时不创建字符串</li>
+ *     <li>正则表达式只编译一次, 并尽可能合并为一个表达式</li>
+ * </ul>
+ * 查询使用的缓冲区和 {@link Matcher} 每个线程只创建一次, 可以由多个线程同时查询
+ */
 public class AddressFilter {
-    private final Set<String> addressFilter;
-    private final Set<String> regexpFilter;
+    private final CidrTrie v4Ranges = new CidrTrie();
+    private final CidrTrie v6Ranges = new CidrTrie();
+    private final Set<String> exactFilter = new HashSet<>();
+    // exactFilter 按 String.hashCode 的开放寻址表, 长度为 2 的幂, 空位为 null
+    private String[] exactTable = new String[0];
+    private final List<Pattern> regexpFilter = new ArrayList<>();
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    /**
+     * @param addressFilter 过滤的地址, 可以是 IP 地址, CIDR 地址段或任意字符串
+     * @param regexpFilter 过滤的正则表达式, 需要完整匹配地址
+     * @throws IllegalArgumentException CIDR 地址段或正则表达式不合法
+     */
     public AddressFilter(Set<String> addressFilter, Set<String> regexpFilter) {
-        this.addressFilter = addressFilter;
-        this.regexpFilter = regexpFilter;
+        if (addressFilter != null) {
+            for (String address : addressFilter) {
+                addAddress(address);
+            }
+        }
+        if (regexpFilter != null) compileRegexp(regexpFilter);
+        buildExactTable();
     }
 
     public static final Set<String> LOOPBACK_ADDRESS = new HashSet<>();
     public static final Set<String> LOOPBACK_REGEXP = new HashSet<>();
     static {
-        LOOPBACK_REGEXP.add("127.\\d+.\\d+.\\d+");
         LOOPBACK_REGEXP.add("^[0:][0:]+1$");
+        LOOPBACK_ADDRESS.add("127.0.0.0/8");
         LOOPBACK_ADDRESS.add("::1");
     }
 
@@ -24,20 +53,183 @@ public class AddressFilter {
         return new AddressFilter(LOOPBACK_ADDRESS, LOOPBACK_REGEXP);
     }
 
+    private void addAddress(String address) {
+        byte[] bytes = new byte[16];
+        int slash = address.indexOf('/');
+        if (slash < 0) {
+            int length = IpAddresses.parse(address, 0, address.length(), bytes);
+            if (length < 0) {
+                exactFilter.add(address);
+            } else {
+                rangesOf(length).add(bytes, length * 8);
+            }
+            return;
+        }
+
+        int length = IpAddresses.parse(address, 0, slash, bytes);
+        int prefix;
+        try {
+            prefix = Integer.parseInt(address.substring(slash + 1));
+        } catch (NumberFormatException e) {
+            prefix = -1;
+        }
+        // IPv4 映射地址已被转换为 4 字节, 但前缀仍按 128 位写出
+        boolean v6Literal = address.lastIndexOf(':', slash) >= 0;
+        if (length < 0 || prefix < 0 || prefix > (v6Literal ? 128 : length * 8)) {
+            throw new IllegalArgumentException("Invalid CIDR " + address);
+        }
+        // ::ffff:0:0/96 之类的 IPv4 映射地址段按 IPv4 的前缀处理, 短于 96 位的前缀超出了映射地址的范围
+        if (length == 4 && v6Literal) {
+            prefix -= 96;
+            if (prefix < 0) throw new IllegalArgumentException("Invalid CIDR " + address);
+        }
+        rangesOf(length).add(bytes, prefix);
+    }
+
+    private void buildExactTable() {
+        if (exactFilter.isEmpty()) return;
+        // 负载不超过 0.5
+        exactTable = new String[Integer.highestOneBit(exactFilter.size() * 4 - 1)];
+        int mask = exactTable.length - 1;
+        for (String address : exactFilter) {
+            int slot = spread(address.hashCode()) & mask;
+            while (exactTable[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            exactTable[slot] = address;
+        }
+    }
+
+    /**
+     * @return [start, end) 是否为精确匹配的地址, 哈希与 {@link String#hashCode()} 相同
+     */
+    private boolean containsExact(CharSequence line, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + line.charAt(i);
+        }
+        int mask = exactTable.length - 1;
+        for (int slot = spread(hash) & mask; exactTable[slot] != null; slot = (slot + 1) & mask) {
+            String address = exactTable[slot];
+            if (address.length() == end - start && regionEquals(address, line, start)) return true;
+        }
+        return false;
+    }
+
+    private static boolean regionEquals(String address, CharSequence line, int start) {
+        for (int i = 0; i < address.length(); i++) {
+            if (address.charAt(i) != line.charAt(start + i)) return false;
+        }
+        return true;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private CidrTrie rangesOf(int length) {
+        return length == 4 ? v4Ranges : v6Ranges;
+    }
+
+    /**
+     * 没有反向引用和命名分组的表达式合并为一个分支表达式, 其余的单独编译
+     */
+    private void compileRegexp(Set<String> regexps) {
+        StringBuilder combined = new StringBuilder();
+        for (String regex : regexps) {
+            // 先单独编译以检查语法
+            Pattern pattern = Pattern.compile(regex);
+            if (hasBackReference(regex) || hasNamedGroup(regex)) {
+                regexpFilter.add(pattern);
+                continue;
+            }
+            if (combined.length() > 0) combined.append('|');
+            combined.append("(?:").append(regex).append(')');
+        }
+        if (combined.length() > 0) regexpFilter.add(0, Pattern.compile(combined.toString()));
+    }
+
+    /**
+     * 合并后分组的编号会改变, 包含反向引用的表达式不能合并
+     */
+    private static boolean hasBackReference(String regex) {
+        for (int i = 0; i + 1 < regex.length(); i++) {
+            if (regex.charAt(i) != '\\') continue;
+            char next = regex.charAt(i + 1);
+            if ((next >= '1' && next <= '9') || next == 'k') return true;
+            // 跳过被转义的字符
+            i++;
+        }
+        return false;
+    }
+
+    /**
+     * 同名的命名分组在合并后的表达式中会重复定义, 包含命名分组的表达式不能合并
+     */
+    private static boolean hasNamedGroup(String regex) {
+        for (int i = 0; i + 3 < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                // 跳过被转义的字符
+                i++;
+                continue;
+            }
+            if (c == '(' && regex.charAt(i + 1) == '?' && regex.charAt(i + 2) == '<') {
+                char next = regex.charAt(i + 3);
+                // (?<= 和 (?<! 是后行断言
+                if (next != '=' && next != '!') return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * 通过过滤列表检查address是否需要被过滤
      * @param address
      * @return true则是需要被过滤, false是不被过滤
      */
     public boolean filterAddress(String address) {
-        if (regexpFilter != null) {
-            for (String regex : regexpFilter) {
-                if (Pattern.matches(regex, address)) return true;
-            }
+        if (address == null) return false;
+        return filterAddress(address, 0, address.length());
+    }
+
+    /**
+     * 检查 line 中 [start, end) 的地址是否需要被过滤
+     * @param line 行内容
+     * @param start 地址的起始位置
+     * @param end 地址的结束位置
+     * @return true则是需要被过滤, false是不被过滤
+     */
+    public boolean filterAddress(CharSequence line, int start, int end) {
+        Scratch local = scratch.get();
+        if (!v4Ranges.isEmpty() || !v6Ranges.isEmpty()) {
+            int length = IpAddresses.parse(line, start, end, local.address);
+            if (length > 0 && rangesOf(length).contains(local.address, length)) return true;
         }
 
-        if (address == null) return false;
+        if (exactTable.length > 0 && containsExact(line, start, end)) return true;
 
-        return addressFilter.contains(address);
+        for (int i = 0; i < regexpFilter.size(); i++) {
+            Matcher matcher = local.matchers[i];
+            if (matcher == null) {
+                matcher = regexpFilter.get(i).matcher(line);
+                local.matchers[i] = matcher;
+            } else {
+                matcher.reset(line);
+            }
+            boolean matches = matcher.region(start, end).matches();
+            // 不保留对 line 的引用
+            matcher.reset("");
+            if (matches) return true;
+        }
+        return false;
+    }
+
+    /**
+     * 每个线程的查询缓冲区
+     */
+    private class Scratch {
+        final byte[] address = new byte[16];
+        final Matcher[] matchers = new Matcher[regexpFilter.size()];
     }
 }
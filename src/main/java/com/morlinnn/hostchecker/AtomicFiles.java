@@ -0,0 +1,107 @@
+package com.morlinnn.hostchecker;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 原子地替换文件: 先写入同一文件夹中的临时文件并同步到磁盘, 再重命名为目标文件, 任何时候中断目标文件都是完整的
+ * <p>目标文件已存在时, 临时文件使用目标文件的权限和所有者 (POSIX 系统), 否则使用 umask 决定的默认权限</p>
+ */
+final class AtomicFiles {
+    private AtomicFiles() {
+    }
+
+    /**
+     * 写入文件的内容
+     */
+    interface Content {
+        /**
+         * @param channel 临时文件, 写入后不需要关闭
+         * @throws IOException
+         */
+        void writeTo(FileChannel channel) throws IOException;
+    }
+
+    /**
+     * @param target 目标文件, 已存在时被原子地替换
+     * @param content 文件的内容
+     * @throws IOException 无法写入或替换
+     */
+    static void write(Path target, Content content) throws IOException {
+        Path absoluteTarget = target.toAbsolutePath();
+        Path temp = createTemp(absoluteTarget);
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                content.writeTo(channel);
+                channel.force(true);
+            }
+            copyAttributes(absoluteTarget, temp);
+            try {
+                Files.move(temp, absoluteTarget, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, absoluteTarget, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        syncDirectory(absoluteTarget.getParent());
+    }
+
+    /**
+     * 不使用 {@link Files#createTempFile}, 它创建的文件权限为 0600, 替换后其他用户无法读取
+     */
+    private static Path createTemp(Path target) throws IOException {
+        while (true) {
+            Path temp = target.resolveSibling(
+                    target.getFileName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong() >>> 1) + ".tmp"
+            );
+            try {
+                return Files.createFile(temp);
+            } catch (FileAlreadyExistsException e) {
+                // 重新选择名称
+            }
+        }
+    }
+
+    /**
+     * 将目标文件的所有者, 组和权限复制到临时文件, 目标文件不存在或不是 POSIX 文件系统时不执行操作
+     */
+    private static void copyAttributes(Path target, Path temp) throws IOException {
+        PosixFileAttributeView targetView = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+        PosixFileAttributeView tempView = Files.getFileAttributeView(temp, PosixFileAttributeView.class);
+        if (targetView == null || tempView == null || !Files.exists(target)) return;
+        PosixFileAttributes attributes = targetView.readAttributes();
+        // 修改所有者可能清除权限中的特殊位, 先修改所有者再设置权限
+        try {
+            tempView.setOwner(attributes.owner());
+        } catch (IOException e) {
+            // 非 root 用户不能修改为其他所有者, 保持当前用户
+        }
+        try {
+            tempView.setGroup(attributes.group());
+        } catch (IOException e) {
+            // 当前用户不在该组中
+        }
+        tempView.setPermissions(attributes.permissions());
+    }
+
+    /**
+     * 同步文件夹, 保证重命名已写入磁盘, 不支持打开文件夹的系统 (Windows) 忽略
+     */
+    static void syncDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // 不支持时由文件系统自行同步
+        }
+    }
+}
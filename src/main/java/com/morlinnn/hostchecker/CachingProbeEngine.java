@@ -0,0 +1,73 @@
+package com.morlinnn.hostchecker;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 使用 {@link ProbeCache} 的探测引擎, 缓存中有未过期结果的地址不再探测
+ * <p>超时的结果只在当时的超时时间不短于本次的超时时间时使用; 因时间预算缩短超时时间的超时结果不写入缓存</p>
+ */
+public class CachingProbeEngine implements ProbeEngine {
+    private final ProbeEngine engine;
+    private final ProbeCache cache;
+    private final boolean readCache;
+
+    /**
+     * @param engine 实际进行探测的引擎
+     * @param cache 缓存
+     */
+    public CachingProbeEngine(ProbeEngine engine, ProbeCache cache) {
+        this(engine, cache, true);
+    }
+
+    /**
+     * @param engine 实际进行探测的引擎
+     * @param cache 缓存
+     * @param readCache 为 false 时跳过缓存, 所有地址都重新探测, 但结果仍会写入缓存
+     */
+    public CachingProbeEngine(ProbeEngine engine, ProbeCache cache, boolean readCache) {
+        this.engine = engine;
+        this.cache = cache;
+        this.readCache = readCache;
+    }
+
+    @Override
+    public CompletableFuture<ProbeResult> probe(String address, int timeout) {
+        return probe(address, timeout, true);
+    }
+
+    @Override
+    public CompletableFuture<ProbeResult> probeShortened(String address, int timeout) {
+        return probe(address, timeout, false);
+    }
+
+    /**
+     * @param cacheTimeout 是否缓存超时的结果
+     */
+    private CompletableFuture<ProbeResult> probe(String address, int timeout, boolean cacheTimeout) {
+        if (readCache) {
+            ProbeResult cached = cache.get(address, timeout);
+            if (cached != null) {
+                return CompletableFuture.completedFuture(
+                        cached.isReachable()
+                                ? ProbeResult.reachable(cached.getPingTime(), "cached " + cached.getMethod())
+                                : cached
+                );
+            }
+        }
+        CompletableFuture<ProbeResult> inner = engine.probe(address, timeout);
+        CompletableFuture<ProbeResult> future = inner.thenApply(result -> {
+            if (cacheTimeout || result.isReachable()) cache.put(address, result, timeout);
+            return result;
+        });
+        // thenApply 返回的 future 被取消时不会取消内部的探测
+        future.whenComplete((result, e) -> {
+            if (future.isCancelled()) inner.cancel(true);
+        });
+        return future;
+    }
+
+    @Override
+    public void close() {
+        engine.close();
+    }
+}
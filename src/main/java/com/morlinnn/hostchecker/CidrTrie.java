@@ -0,0 +1,67 @@
+package com.morlinnn.hostchecker;
+
+import java.util.Arrays;
+
+/**
+ * 按地址的二进制位建立的前缀树, 查询只与地址长度有关, 与规则数量无关
+ */
+final class CidrTrie {
+    // children[node * 2 + bit] 为子节点, 0 表示没有子节点 (根节点为 0, 不会是子节点)
+    private int[] children = new int[32];
+    private boolean[] terminal = new boolean[16];
+    private int nodeCount = 1;
+
+    /**
+     * 添加一个地址段
+     * @param address 地址的字节
+     * @param prefix 前缀长度 (位)
+     */
+    void add(byte[] address, int prefix) {
+        int node = 0;
+        for (int i = 0; i < prefix; i++) {
+            // 已经被更短的前缀覆盖
+            if (terminal[node]) return;
+            int slot = node * 2 + bit(address, i);
+            int child = children[slot];
+            if (child == 0) {
+                // newNode 可能替换 children 数组, 不能直接写成 children[slot] = newNode()
+                child = newNode();
+                children[slot] = child;
+            }
+            node = child;
+        }
+        terminal[node] = true;
+    }
+
+    /**
+     * @param address 地址的字节
+     * @param length 地址的字节数
+     * @return 地址是否在任意一个地址段中
+     */
+    boolean contains(byte[] address, int length) {
+        int node = 0;
+        int bits = length * 8;
+        for (int i = 0; i < bits; i++) {
+            if (terminal[node]) return true;
+            node = children[node * 2 + bit(address, i)];
+            if (node == 0) return false;
+        }
+        return terminal[node];
+    }
+
+    boolean isEmpty() {
+        return nodeCount == 1 && !terminal[0];
+    }
+
+    private int newNode() {
+        if (nodeCount == terminal.length) {
+            terminal = Arrays.copyOf(terminal, nodeCount * 2);
+            children = Arrays.copyOf(children, nodeCount * 4);
+        }
+        return nodeCount++;
+    }
+
+    private static int bit(byte[] address, int index) {
+        return (address[index >> 3] >> (7 - (index & 7))) & 1;
+    }
+}
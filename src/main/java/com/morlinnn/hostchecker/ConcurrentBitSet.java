@@ -0,0 +1,48 @@
+package com.morlinnn.hostchecker;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 固定大小的无锁位集合, 可以被多个线程同时设置
+ */
+final class ConcurrentBitSet {
+    private final AtomicLongArray words;
+
+    /**
+     * @param size 位的数量, 索引范围为 [0, size)
+     */
+    ConcurrentBitSet(int size) {
+        words = new AtomicLongArray((size + 63) >>> 6);
+    }
+
+    void set(int index) {
+        int word = index >>> 6;
+        long mask = 1L << index;
+        long current;
+        do {
+            current = words.get(word);
+            if ((current & mask) != 0) return;
+        } while (!words.compareAndSet(word, current, current | mask));
+    }
+
+    boolean get(int index) {
+        return (words.get(index >>> 6) & 1L << index) != 0;
+    }
+
+    /**
+     * @return 所有已设置的索引
+     */
+    Set<Integer> toSet() {
+        Set<Integer> set = new HashSet<>();
+        for (int word = 0; word < words.length(); word++) {
+            long bits = words.get(word);
+            while (bits != 0) {
+                set.add(word * 64 + Long.numberOfTrailingZeros(bits));
+                bits &= bits - 1;
+            }
+        }
+        return set;
+    }
+}
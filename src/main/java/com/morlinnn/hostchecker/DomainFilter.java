@@ -0,0 +1,239 @@
+package com.morlinnn.hostchecker;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 域名过滤, 与 {@link AddressFilter} 一起在加载时决定哪些行需要检查
+ * <ul>
+ *     <li>排除规则: 匹配的行不会被检查, 也不会被移除</li>
+ *     <li>包含规则: 匹配的行总是被检查, 即使地址被 {@link AddressFilter} 过滤或域名被排除</li>
+ * </ul>
+ * 规则 "example.com" 匹配 example.com 及其所有子域名, "*.example.com" 只匹配子域名。
+ * 规则按标签倒序存储在前缀树中, 查询开销只与域名的标签数量有关, 与规则数量无关。
+ * 子节点按小写标签的哈希存储, 查询时在原内容上忽略大小写比较, 不创建字符串
+ */
+public class DomainFilter {
+    private final Node exclude = new Node();
+    private final Node include = new Node();
+
+    /**
+     * @param excludeRules 排除规则
+     * @param includeRules 包含规则
+     */
+    public DomainFilter(Collection<String> excludeRules, Collection<String> includeRules) {
+        if (excludeRules != null) excludeRules.forEach(rule -> addRule(exclude, rule));
+        if (includeRules != null) includeRules.forEach(rule -> addRule(include, rule));
+    }
+
+    /**
+     * 从规则文件加载, 每行一个规则, 空行和 '#' 开头的行被忽略
+     * @param excludeFiles 排除规则文件
+     * @param includeFiles 包含规则文件
+     * @return 域名过滤
+     * @throws IOException 文件无法读取
+     */
+    public static DomainFilter fromFiles(List<Path> excludeFiles, List<Path> includeFiles) throws IOException {
+        DomainFilter filter = new DomainFilter(null, null);
+        for (Path file : excludeFiles) {
+            loadRules(filter.exclude, file);
+        }
+        for (Path file : includeFiles) {
+            loadRules(filter.include, file);
+        }
+        return filter;
+    }
+
+    private static void loadRules(Node root, Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.charAt(0) == '#') continue;
+                addRule(root, line);
+            }
+        }
+    }
+
+    private static void addRule(Node root, String rule) {
+        String domain = toLowerCase(rule.trim());
+        boolean subdomainsOnly = false;
+        if (domain.startsWith("*.")) {
+            subdomainsOnly = true;
+            domain = domain.substring(2);
+        }
+        if (domain.endsWith(".")) domain = domain.substring(0, domain.length() - 1);
+        if (domain.isEmpty()) throw new IllegalArgumentException("Invalid domain rule " + rule);
+
+        Node node = root;
+        int end = domain.length();
+        while (end > 0) {
+            int start = domain.lastIndexOf('.', end - 1) + 1;
+            node = node.child(domain.substring(start, end));
+            end = start - 1;
+        }
+        if (subdomainsOnly) {
+            node.subdomains = true;
+        } else {
+            node.self = true;
+        }
+    }
+
+    /**
+     * @param domain 域名
+     * @return 是否匹配排除规则
+     */
+    public boolean isExcluded(String domain) {
+        return matches(exclude, domain, 0, domain.length());
+    }
+
+    /**
+     * @param domain 域名
+     * @return 是否匹配包含规则
+     */
+    public boolean isIncluded(String domain) {
+        return matches(include, domain, 0, domain.length());
+    }
+
+    /**
+     * @return line 中 [start, end) 的域名是否匹配排除规则
+     */
+    boolean isExcluded(CharSequence line, int start, int end) {
+        return matches(exclude, line, start, end);
+    }
+
+    /**
+     * @return line 中 [start, end) 的域名是否匹配包含规则
+     */
+    boolean isIncluded(CharSequence line, int start, int end) {
+        return matches(include, line, start, end);
+    }
+
+    boolean hasExcludeRules() {
+        return exclude.labels != null;
+    }
+
+    boolean hasIncludeRules() {
+        return include.labels != null;
+    }
+
+    private static boolean matches(Node root, CharSequence line, int start, int end) {
+        if (root.labels == null) return false;
+        if (end > start && line.charAt(end - 1) == '.') end--;
+        Node node = root;
+        while (end > start) {
+            int labelStart = end - 1;
+            while (labelStart >= start && line.charAt(labelStart) != '.') labelStart--;
+            node = node.get(line, labelStart + 1, end);
+            if (node == null) return false;
+            end = labelStart;
+            if (node.self) return true;
+            // 还有剩余的标签说明是子域名
+            if (node.subdomains && end > start) return true;
+        }
+        return false;
+    }
+
+    /**
+     * 逐个字符转为小写, 与查询时的比较一致
+     */
+    private static String toLowerCase(String s) {
+        char[] chars = s.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = lower(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    private static char lower(char c) {
+        if (c < 0x80) return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        return Character.toLowerCase(c);
+    }
+
+    /**
+     * @return [start, end) 转为小写后的 {@link String#hashCode()}, 混合了高位
+     */
+    private static int hash(CharSequence s, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + lower(s.charAt(i));
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static class Node {
+        // 小写标签和子节点的开放寻址表, 长度为 2 的幂, 没有子节点时为 null
+        String[] labels;
+        Node[] children;
+        int size;
+        // 匹配该域名及其所有子域名
+        boolean self;
+        // 只匹配子域名
+        boolean subdomains;
+
+        /**
+         * @param label 小写的标签
+         * @return 标签对应的子节点, 不存在时创建
+         */
+        Node child(String label) {
+            if (labels == null) {
+                labels = new String[4];
+                children = new Node[4];
+            }
+            int mask = labels.length - 1;
+            int slot = hash(label, 0, label.length()) & mask;
+            while (labels[slot] != null) {
+                if (labels[slot].equals(label)) return children[slot];
+                slot = (slot + 1) & mask;
+            }
+            Node child = new Node();
+            labels[slot] = label;
+            children[slot] = child;
+            // 负载不超过 0.5
+            if (++size * 2 > labels.length) grow();
+            return child;
+        }
+
+        /**
+         * @return line 中 [start, end) 的标签忽略大小写对应的子节点, 不存在时返回 null
+         */
+        Node get(CharSequence line, int start, int end) {
+            if (labels == null) return null;
+            int mask = labels.length - 1;
+            for (int slot = hash(line, start, end) & mask; labels[slot] != null; slot = (slot + 1) & mask) {
+                if (equalsIgnoreCase(labels[slot], line, start, end)) return children[slot];
+            }
+            return null;
+        }
+
+        private void grow() {
+            String[] oldLabels = labels;
+            Node[] oldChildren = children;
+            labels = new String[oldLabels.length * 2];
+            children = new Node[oldChildren.length * 2];
+            int mask = labels.length - 1;
+            for (int i = 0; i < oldLabels.length; i++) {
+                if (oldLabels[i] == null) continue;
+                int slot = hash(oldLabels[i], 0, oldLabels[i].length()) & mask;
+                while (labels[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                labels[slot] = oldLabels[i];
+                children[slot] = oldChildren[i];
+            }
+        }
+
+        private static boolean equalsIgnoreCase(String label, CharSequence line, int start, int end) {
+            if (label.length() != end - start) return false;
+            for (int i = 0; i < label.length(); i++) {
+                if (label.charAt(i) != lower(line.charAt(start + i))) return false;
+            }
+            return true;
+        }
+    }
+}
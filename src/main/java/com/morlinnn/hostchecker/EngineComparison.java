@@ -0,0 +1,68 @@
+package com.morlinnn.hostchecker;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 在模拟的高延迟探测上对比固定线程池与虚拟线程的吞吐量
+ * <p>模拟的延迟使用 sleep, 虚拟线程等待时不占用平台线程; 阻塞在本地方法中的探测 (InetAddress.isReachable) 没有这个优势,
+ * 因此 {@link VirtualThreadProbeEngine} 默认使用 {@link TcpConnectProber}</p>
+ * <pre>
+ * java -cp HostChecker.jar com.morlinnn.hostchecker.EngineComparison [探测数量] [延迟(ms)] [并发数]
+ * </pre>
+ */
+public class EngineComparison {
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int latency = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int concurrency = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+
+        // 模拟高延迟的主机: 线程一直阻塞到延迟结束
+        Prober prober = (address, timeout) -> {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return latency;
+        };
+
+        System.out.println(
+                count + " probes, " + latency + "ms latency, concurrency " + concurrency + "\n"
+        );
+        try (ProbeEngine engine = new ThreadPoolProbeEngine(concurrency, prober)) {
+            run("fixed pool", engine, count);
+        }
+        if (VirtualThreadProbeEngine.isSupported()) {
+            try (ProbeEngine engine = new VirtualThreadProbeEngine(concurrency, prober)) {
+                run("virtual", engine, count);
+            }
+        } else {
+            System.out.println("virtual: virtual threads require JDK 21+, skipped");
+        }
+    }
+
+    private static void run(String name, ProbeEngine engine, int count) throws InterruptedException {
+        // 等待上一轮关闭的线程池线程退出, 避免计入峰值
+        Thread.sleep(500);
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        long start = System.nanoTime();
+
+        List<CompletableFuture<ProbeResult>> futures = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            futures.add(engine.probe("10.0." + (i >> 8 & 0xff) + "." + (i & 0xff), 10000));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+
+        long elapsed = (System.nanoTime() - start) / 1_000_000L;
+        System.out.println(
+                name + ": " + elapsed + "ms, "
+                        + (elapsed == 0 ? count : count * 1000L / elapsed) + " probes/s, "
+                        + "peak platform threads " + threads.getPeakThreadCount()
+        );
+    }
+}
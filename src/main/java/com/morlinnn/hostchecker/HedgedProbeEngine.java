@@ -0,0 +1,165 @@
+package com.morlinnn.hostchecker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按顺序组合多个探测策略的引擎, 例如先 ping 再 TCP connect
+ * <p>先开始第一个策略, 每经过 hedgeDelay 仍没有成功就开始下一个策略,
+ * 某个策略超时或出错时立即开始下一个策略。任意一个策略成功即视为可达, 并取消其余正在进行的策略,
+ * 结果的探测方式为成功的策略, 例如 "ping" 或 "tcp:443"。
+ * 所有策略都失败时, 只要有一个是超时就视为超时, 否则返回最后一个错误</p>
+ */
+public class HedgedProbeEngine implements ProbeEngine {
+    public static final long DEFAULT_HEDGE_DELAY = 200;
+
+    private final List<ProbeEngine> strategies;
+    private final long hedgeDelay;
+    private final ScheduledExecutorService timer;
+    // key: 成功的探测方式, value: 次数
+    private final Map<String, AtomicLong> wins = new ConcurrentHashMap<>();
+
+    /**
+     * @param strategies 按顺序开始的探测策略, 关闭时一起关闭
+     * @param hedgeDelay 开始下一个策略前等待的时间 (ms)
+     */
+    public HedgedProbeEngine(List<ProbeEngine> strategies, long hedgeDelay) {
+        if (strategies == null || strategies.isEmpty()) throw new IllegalArgumentException("strategies must not be empty");
+        if (hedgeDelay < 0) throw new IllegalArgumentException("hedgeDelay must not be negative");
+        this.strategies = new ArrayList<>(strategies);
+        this.hedgeDelay = hedgeDelay;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "probe-hedge-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public CompletableFuture<ProbeResult> probe(String address, int timeout) {
+        Race race = new Race(address, timeout);
+        race.startNext();
+        return race.future;
+    }
+
+    /**
+     * @return key: 成功的探测方式, value: 次数
+     */
+    public Map<String, Long> getWins() {
+        Map<String, Long> result = new TreeMap<>();
+        wins.forEach((method, count) -> result.put(method, count.get()));
+        return result;
+    }
+
+    /**
+     * 输出每种探测方式成功的次数
+     */
+    public void printSummary() {
+        System.out.println("hedged probe wins: " + getWins());
+    }
+
+    @Override
+    public void close() {
+        timer.shutdownNow();
+        for (ProbeEngine strategy : strategies) {
+            strategy.close();
+        }
+    }
+
+    /**
+     * 单个地址的所有策略
+     */
+    private class Race {
+        final String address;
+        final int timeout;
+        final CompletableFuture<ProbeResult> future = new CompletableFuture<>();
+        // 以下字段由 this 保护
+        final List<CompletableFuture<ProbeResult>> attempts = new ArrayList<>();
+        int started = 0;
+        int finished = 0;
+        boolean timedOut = false;
+        Throwable lastError;
+        ScheduledFuture<?> hedge;
+
+        Race(String address, int timeout) {
+            this.address = address;
+            this.timeout = timeout;
+            // 完成或被调用方取消时取消所有还在进行的策略
+            future.whenComplete((result, e) -> cancelAll());
+        }
+
+        void startNext() {
+            int index;
+            synchronized (this) {
+                if (future.isDone() || started == strategies.size()) return;
+                index = started++;
+                if (hedge != null) hedge.cancel(false);
+                hedge = started < strategies.size()
+                        ? timer.schedule(this::startNext, hedgeDelay, TimeUnit.MILLISECONDS)
+                        : null;
+            }
+
+            CompletableFuture<ProbeResult> attempt;
+            try {
+                attempt = strategies.get(index).probe(address, timeout);
+            } catch (RuntimeException e) {
+                attempt = new CompletableFuture<>();
+                attempt.completeExceptionally(e);
+            }
+            synchronized (this) {
+                attempts.add(attempt);
+            }
+            if (future.isDone()) attempt.cancel(true);
+            attempt.whenComplete(this::attemptCompleted);
+        }
+
+        void attemptCompleted(ProbeResult result, Throwable e) {
+            if (future.isDone()) return;
+            if (e == null && result.isReachable()) {
+                if (future.complete(result)) {
+                    wins.computeIfAbsent(String.valueOf(result.getMethod()), k -> new AtomicLong()).incrementAndGet();
+                }
+                return;
+            }
+
+            boolean allFinished;
+            synchronized (this) {
+                finished++;
+                if (e == null) {
+                    timedOut = true;
+                } else {
+                    lastError = e instanceof CompletionException ? e.getCause() : e;
+                }
+                allFinished = finished == strategies.size();
+            }
+            if (!allFinished) {
+                startNext();
+            } else if (timedOut) {
+                future.complete(ProbeResult.timeout());
+            } else {
+                future.completeExceptionally(lastError);
+            }
+        }
+
+        void cancelAll() {
+            List<CompletableFuture<ProbeResult>> running;
+            synchronized (this) {
+                if (hedge != null) hedge.cancel(false);
+                running = new ArrayList<>(attempts);
+            }
+            for (CompletableFuture<ProbeResult> attempt : running) {
+                attempt.cancel(true);
+            }
+        }
+    }
+}
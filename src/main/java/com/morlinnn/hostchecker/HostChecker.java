@@ -2,14 +2,30 @@ package com.morlinnn.hostchecker;
 
 import java.io.*;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.AccessDeniedException;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 用于使用 ping 检查 Windows Host 地址有效性。
@@ -19,14 +35,39 @@ import java.util.concurrent.Executors;
  * @author Morlinnn
  */
 public class HostChecker {
+    /**
+     * 可以加载的最大内容 (UTF-8 字节), 所有行保存在一个 byte[] 中
+     */
+    public static final int MAX_CONTENT_SIZE = Integer.MAX_VALUE - 8;
+    // 过滤时指向地址和域名的视图, ParallelLoader 在多个线程中过滤, 每个线程一个
+    private static final ThreadLocal<Utf8Chars> CHARS = ThreadLocal.withInitial(Utf8Chars::new);
+
     private final String dir;
     private final String fileName;
-    private List<String> lines;
-    private List<Integer> validLines;
+    private LineStore lines;
+    // 有效行的行号, 从小到大排列
+    private IntList validLines;
+    // 每个有效行的地址和域名在 lines.data() 中的位置, 每行 HostLineParser.FIELDS 个, 与 validLines 顺序一致
+    private IntList packOffsets;
+    // 已被移除的行号, 保存时跳过
+    private BitSet removedLines = new BitSet();
     private final AddressFilter filter;
+    private DomainFilter domainFilter = null;
     private int readValidLinesIndex = 0;
     private boolean isModified = false;
     private char annotation = '#';
+    private Charset charset = StandardCharsets.UTF_8;
+    private boolean hasBom = false;
+    // 加载时或上一次保存后文件的修改时间和大小, 文件未变化时保存可以直接复制原文件中未修改的部分
+    private Object loadedVersion = null;
+    // 加载的内容的字节数, 行的位置以加载的内容为准
+    private long loadedSize = 0;
+    // 已经保存到文件中的移除, 这些行在当前文件中已不存在
+    private BitSet savedRemovedLines = new BitSet();
+    private boolean backup = true;
+    private boolean overwriteBackup = false;
+    private final ProbeMetrics metrics = new ProbeMetrics();
+    private ProbeReporter.Mode reportMode = ProbeReporter.Mode.HUMAN;
 
     /**
      * 从 Host 文件中加载 DNS, 如果是系统文件需要管理员权限
@@ -58,6 +99,44 @@ public class HostChecker {
         init();
     }
 
+    /**
+     * 从 Host 文件中加载 DNS, 如果是系统文件需要管理员权限
+     * @param dir 文件所在路径
+     * @param fileName 文件名称
+     * @param filter 过滤地址(标准 Host 文件为 "Address Domain", 此处为 Address 的过滤)的列表
+     * @param annotation 注释符号
+     * @param charset 文件编码, 保存时使用相同的编码
+     * @throws AccessDeniedException 没有文件夹/文件的读权限
+     */
+    public HostChecker(String dir, String fileName, AddressFilter filter, char annotation, Charset charset) throws AccessDeniedException {
+        this.filter = filter;
+        this.dir = dir;
+        this.fileName = fileName;
+        this.annotation = annotation;
+        this.charset = charset;
+        init();
+    }
+
+    /**
+     * 从 Host 文件中加载 DNS, 如果是系统文件需要管理员权限
+     * @param dir 文件所在路径
+     * @param fileName 文件名称
+     * @param filter 过滤地址(标准 Host 文件为 "Address Domain", 此处为 Address 的过滤)的列表
+     * @param domainFilter 域名的排除/包含规则, 可以为 null
+     * @param annotation 注释符号
+     * @param charset 文件编码, 保存时使用相同的编码
+     * @throws AccessDeniedException 没有文件夹/文件的读权限
+     */
+    public HostChecker(String dir, String fileName, AddressFilter filter, DomainFilter domainFilter, char annotation, Charset charset) throws AccessDeniedException {
+        this.filter = filter;
+        this.domainFilter = domainFilter;
+        this.dir = dir;
+        this.fileName = fileName;
+        this.annotation = annotation;
+        this.charset = charset;
+        init();
+    }
+
     /**
      * 从字符串中加载 DNS, 如果是系统文件夹需要管理员权限
      * @param hostString 原字符串
@@ -90,6 +169,25 @@ public class HostChecker {
         initFromString(hostString);
     }
 
+    /**
+     * 从字符串中加载 DNS, 如果是系统文件夹需要管理员权限
+     * @param hostString 原字符串
+     * @param saveDir 保存路径
+     * @param fileName 保存名称
+     * @param filter 过滤地址(标准 Host 文件为 "Address Domain", 此处为 Address 的过滤)的列表
+     * @param domainFilter 域名的排除/包含规则, 可以为 null
+     * @param annotation 注释符号
+     * @throws AccessDeniedException 没有文件夹/文件的读权限
+     */
+    public HostChecker(String hostString, String saveDir, String fileName, AddressFilter filter, DomainFilter domainFilter, char annotation) throws AccessDeniedException {
+        this.fileName = fileName;
+        this.dir =saveDir;
+        this.filter = filter;
+        this.domainFilter = domainFilter;
+        this.annotation = annotation;
+        initFromString(hostString);
+    }
+
     /**
      * 如果文件夹或文件没有读权限抛出异常
      * @param file 文件夹或文件
@@ -132,109 +230,280 @@ public class HostChecker {
         // 检查文件夹的读权限
         checkReadableMessage(new File(dir));
 
-        String[] strings = hostString.split("(\r\n|\n|\r)");
-        validLines = new ArrayList<>();
-        this.lines = new ArrayList<>();
-
-        for (int i = 0; i < strings.length; i++) {
-            String str = strings[i];
-            if (str == null) break;
-            lines.add(str);
+        long loadStart = System.nanoTime();
+        byte[] data = hostString.getBytes(StandardCharsets.UTF_8);
+        load(data, 0, data.length);
+        metrics.recordPhase(ProbeMetrics.Phase.LOAD, System.nanoTime() - loadStart);
+        filterLines(0);
+        printLoadMessage(validLines.size(), (System.nanoTime() - loadStart) / 1_000_000);
+    }
 
-            Map.Entry<String, String> dns = readValidString(str);
-            if (dns == null) continue;
+    /**
+     * 文件的加载方法, 使用 {@link FileChannel} 一次读取整个文件
+     * <p>UTF-8 文件校验后直接使用读取的字节, 其它编码按 {@link #charset} 解码后转换为 UTF-8。
+     * 无法解码的内容和超过 {@link #MAX_CONTENT_SIZE} 的内容都不会被加载</p>
+     * @throws IOException 无法读取, 无法解码或文件过大
+     */
+    private void loadFromFile() throws IOException {
+        long loadStart = System.nanoTime();
+        File file = new File(dir, fileName);
+        Object version = fileVersion(file.toPath());
+        loadFromBytes(file, readFile(file), version, loadStart);
+    }
 
-            if (!filter.filterAddress(dns.getKey())) validLines.add(i+1);
+    private static byte[] readFile(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > MAX_CONTENT_SIZE) throw tooLarge(file, size);
+            byte[] data = new byte[(int) size];
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) break;
+            }
+            return data;
         }
-        printLoadMessage(validLines.size());
+    }
+
+    private static boolean startsWithBom(byte[] data) {
+        return data.length >= 3 && data[0] == (byte) 0xEF && data[1] == (byte) 0xBB && data[2] == (byte) 0xBF;
     }
 
     /**
-     * 文件的加载方法
-     * @throws IOException
+     * @param file 读取的文件
+     * @param data 文件的全部内容
+     * @param version 读取前文件的修改时间和大小
+     * @param loadStart 开始读取的时间
+     * @throws IOException 无法解码或文件过大
      */
-    private void loadFromFile() throws IOException {
-        RandomAccessFile raf = new RandomAccessFile(new File(dir, fileName), "r");
-        validLines = new ArrayList<>();
-        lines = new ArrayList<>();
+    private void loadFromBytes(File file, byte[] data, Object version, long loadStart) throws IOException {
+        loadedVersion = null;
+        hasBom = false;
+        int from = 0;
+        if (charset.equals(StandardCharsets.UTF_8)) {
+            if (startsWithBom(data)) {
+                // 保存时需要写回 BOM
+                hasBom = true;
+                from = 3;
+            }
+            validateUtf8(data, from, file);
+        } else {
+            CharsetDecoder decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT);
+            String content;
+            try {
+                content = decoder.decode(ByteBuffer.wrap(data)).toString();
+            } catch (CharacterCodingException e) {
+                // 不替换无法解码的字节, 否则保存时会破坏原文件
+                throw new IOException("Can not decode " + file.getAbsolutePath() + " as " + charset, e);
+            }
+            if (!content.isEmpty() && content.charAt(0) == '\uFEFF') {
+                hasBom = true;
+                content = content.substring(1);
+            }
+            long utf8Size = utf8Length(content);
+            if (utf8Size > MAX_CONTENT_SIZE) throw tooLarge(file, utf8Size);
+            data = content.getBytes(StandardCharsets.UTF_8);
+        }
+        load(data, from, data.length);
+        // 读取期间文件被修改时 data 可能与文件不一致, 不能复制原文件
+        if (charset.equals(StandardCharsets.UTF_8) && version.equals(fileVersion(file.toPath()))) loadedVersion = version;
+        metrics.recordPhase(ProbeMetrics.Phase.LOAD, System.nanoTime() - loadStart);
+        filterLines(0);
+        printLoadMessage(validLines.size(), (System.nanoTime() - loadStart) / 1_000_000);
+    }
 
-        int line = 1;
-        while (true) {
-            String str = raf.readLine();
-            if (str == null) break;
-            lines.add(str);
+    private static IOException tooLarge(File file, long size) {
+        return new IOException(
+                "File is too large to load: " + file.getAbsolutePath() + " is " + size
+                        + " bytes as UTF-8, at most " + MAX_CONTENT_SIZE + " bytes are supported"
+        );
+    }
 
-            Map.Entry<String, String> dns = readValidString(str);
-            if (dns == null) {
-                line++;
-                continue;
+    /**
+     * 与其它编码一样严格校验 UTF-8, 使用固定大小的缓冲逐段解码, 不保留解码结果
+     * @throws IOException 包含不合法的 UTF-8 序列
+     */
+    private static void validateUtf8(byte[] data, int from, File file) throws IOException {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        ByteBuffer in = ByteBuffer.wrap(data, from, data.length - from);
+        CharBuffer out = CharBuffer.allocate(8192);
+        while (true) {
+            CoderResult result = decoder.decode(in, out, true);
+            if (result.isUnderflow()) {
+                result = decoder.flush(out);
+                if (result.isUnderflow()) return;
+            }
+            if (result.isError()) {
+                // 不替换无法解码的字节, 否则保存时会破坏原文件
+                throw new IOException(
+                        "Can not decode " + file.getAbsolutePath() + " as " + StandardCharsets.UTF_8
+                                + ", malformed input at byte " + in.position()
+                );
             }
+            out.clear();
+        }
+    }
 
-            if (!filter.filterAddress(dns.getKey())) {
-                validLines.add(line);
+    /**
+     * @return content 编码为 UTF-8 后的字节数
+     */
+    private static long utf8Length(String content) {
+        long length = 0;
+        for (int i = 0; i < content.length(); i++) {
+            char c = content.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < content.length() && Character.isLowSurrogate(content.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
             }
-            line++;
         }
-        raf.close();
-        printLoadMessage(validLines.size());
+        return length;
     }
 
-    private void printLoadMessage(int loadSize) {
-        System.out.println("load " + loadSize + " valid dns\n");
+    /**
+     * @return 文件的修改时间和大小
+     */
+    private static Object fileVersion(Path path) throws IOException {
+        return Arrays.asList(Files.getLastModifiedTime(path), Files.size(path));
+    }
+
+    private void printLoadMessage(int loadSize, long loadTime) {
+        System.out.println("load " + loadSize + " valid dns in " + loadTime + "ms\n");
     }
 
     /**
-     * 获取字符串中有效的地址和域名
-     * @param str 原字符串
-     * @return key: 地址, value: 域名
+     * 分行并记录所有有效行的行号和地址, 域名的位置
+     * <p>内容较大时使用 {@link ParallelLoader} 并行分行和解析</p>
+     * @param data UTF-8 内容
+     * @param from 起始位置
+     * @param to 结束位置
      */
-    public Map.Entry<String, String> readValidString(String str) {
-        if (str == null || str.length() < 4) return null;
-
-        int addrStart = -1;
-        int addrEnd = -1;
-        int domainStart = -1;
-        int domainEnd = -1;
-        for (int i = 0; i < str.length(); i++) {
-            if (str.charAt(i) == annotation) break;
-            if (addrStart == -1) {
-                if (isValidAddress((byte) str.charAt(i))) {
-                    addrStart = i;
-                    continue;
-                }
-            }
-            if (addrStart != -1 && addrEnd == -1 && !isValidAddress((byte) str.charAt(i))) {
-                addrEnd = i;
-                continue;
-            }
-            if (domainStart == -1 && addrEnd != -1 && isValidAddress((byte) str.charAt(i))) {
-                domainStart = i;
-                continue;
+    private void load(byte[] data, int from, int to) {
+        removedLines = new BitSet();
+        savedRemovedLines = new BitSet();
+        loadedSize = to;
+        byte[] annotationBytes = String.valueOf(annotation).getBytes(StandardCharsets.UTF_8);
+        if (ParallelLoader.shouldLoadInParallel(to - from)) {
+            ParallelLoader.Chunk chunk = ParallelLoader.load(data, from, to, annotationBytes);
+            lines = chunk.lines;
+            validLines = chunk.validLines;
+            packOffsets = chunk.packOffsets;
+            return;
+        }
+
+        lines = new LineStore(data, from, to);
+        validLines = new IntList();
+        packOffsets = new IntList();
+        parseLines(0, annotationBytes);
+    }
+
+    /**
+     * 解析从 first 开始的所有行, 有效行追加到 validLines 和 packOffsets
+     * @param first 第一个需要解析的行的索引, 从 0 开始
+     * @param annotationBytes 注释符号的 UTF-8 编码
+     */
+    private void parseLines(int first, byte[] annotationBytes) {
+        byte[] data = lines.data();
+        int[] offsets = new int[HostLineParser.FIELDS];
+        for (int i = first; i < lines.size(); i++) {
+            if (!HostLineParser.parse(data, lines.start(i), lines.end(i), annotationBytes, offsets, 0)) continue;
+            validLines.add(i + 1);
+            for (int offset : offsets) {
+                packOffsets.add(offset);
             }
-            if (domainStart != -1) {
-                if (i == str.length()-1 && isValidAddress((byte) str.charAt(i))) {
-                    domainEnd = i + 1;
-                    break;
-                }
-                if (!isValidAddress((byte) str.charAt(i))) {
-                    domainEnd = i;
-                    break;
-                }
+        }
+    }
+
+    /**
+     * 按过滤规则在原位置压缩有效行, 只保留需要检查的行
+     * <p>有效行较多时使用 {@link ParallelLoader} 并行判断, 再按顺序压缩</p>
+     * @param first 第一个需要判断的有效行的索引, 之前的有效行已经过滤
+     */
+    private void filterLines(int first) {
+        long filterStart = System.nanoTime();
+        byte[] data = lines.data();
+        byte[] annotationBytes = String.valueOf(annotation).getBytes(StandardCharsets.UTF_8);
+        int[] packs = packOffsets.array();
+        int count = validLines.size();
+        boolean[] keep = null;
+        if (first == 0 && ParallelLoader.shouldFilterInParallel(count)) {
+            keep = ParallelLoader.filter(packs, count, offsets -> needCheck(filter, domainFilter, data, offsets, annotationBytes));
+        }
+
+        int[] offsets = new int[HostLineParser.FIELDS];
+        int kept = first;
+        for (int i = first; i < count; i++) {
+            System.arraycopy(packs, i * HostLineParser.FIELDS, offsets, 0, HostLineParser.FIELDS);
+            if (keep != null ? !keep[i] : !needCheck(filter, domainFilter, data, offsets, annotationBytes)) continue;
+            if (kept != i) {
+                validLines.set(kept, validLines.get(i));
+                System.arraycopy(offsets, 0, packs, kept * HostLineParser.FIELDS, HostLineParser.FIELDS);
             }
+            kept++;
         }
-        if (addrEnd == -1 || domainStart == -1 || domainEnd == -1) return null;
-        String addr = str.substring(addrStart, addrEnd);
-        String domain = str.substring(domainStart, domainEnd);
-        return new AbstractMap.SimpleEntry<>(addr, domain);
+        validLines.truncate(kept);
+        packOffsets.truncate(kept * HostLineParser.FIELDS);
+        metrics.recordPhase(ProbeMetrics.Phase.FILTER, System.nanoTime() - filterStart);
     }
 
     /**
-     * 检查是否是合法的地址字符
-     * @param c 待检查的字符
-     * @return 如果是则返回 true, 否在返回 false
+     * 根据域名和地址的过滤规则判断已解析的行是否需要检查
+     * <p>匹配包含规则的行总是需要检查, 否则匹配排除规则或地址被过滤的行不需要检查</p>
+     * @param filter 地址过滤规则
+     * @param domainFilter 域名过滤规则, 可以为 null
+     * @param data 内容
+     * @param offsets {@link HostLineParser} 解析出的位置
+     * @param annotationBytes 注释符号的 UTF-8 编码
+     * @return 是否需要检查
      */
-    private boolean isValidAddress(byte c) {
-        return c != ' ' && c != annotation && c != '\r' && c != '\n';
+    static boolean needCheck(AddressFilter filter, DomainFilter domainFilter, byte[] data, int[] offsets, byte[] annotationBytes) {
+        if (domainFilter != null) {
+            if (domainFilter.hasIncludeRules() && anyDomainMatches(domainFilter, data, offsets, annotationBytes, true)) return true;
+            if (domainFilter.hasExcludeRules() && anyDomainMatches(domainFilter, data, offsets, annotationBytes, false)) return false;
+        }
+        Utf8Chars addr = CHARS.get().set(data, offsets[HostLineParser.ADDR_START], offsets[HostLineParser.ADDR_END]);
+        return !filter.filterAddress(addr, 0, addr.length());
+    }
+
+    /**
+     * @param include true 检查包含规则, false 检查排除规则
+     * @return 该行是否有任意一个域名匹配规则
+     */
+    private static boolean anyDomainMatches(DomainFilter domainFilter, byte[] data, int[] offsets, byte[] annotationBytes, boolean include) {
+        Utf8Chars domain = CHARS.get();
+        int i = offsets[HostLineParser.DOMAIN_START];
+        int domainsEnd = offsets[HostLineParser.DOMAINS_END];
+        while (i < domainsEnd) {
+            int end = HostLineParser.skipToken(data, i, domainsEnd, annotationBytes);
+            domain.set(data, i, end);
+            if (include
+                    ? domainFilter.isIncluded(domain, 0, domain.length())
+                    : domainFilter.isExcluded(domain, 0, domain.length())) return true;
+            i = HostLineParser.skipSeparators(data, end, domainsEnd);
+        }
+        return false;
+    }
+
+    /**
+     * 获取字符串中有效的地址和域名
+     * @param str 原字符串
+     * @return key: 地址, value: 第一个域名
+     */
+    public Map.Entry<String, String> readValidString(String str) {
+        if (str == null) return null;
+        int[] offsets = new int[HostLineParser.FIELDS];
+        if (!HostLineParser.parse(str, annotation, offsets, 0)) return null;
+        String addr = str.substring(offsets[HostLineParser.ADDR_START], offsets[HostLineParser.ADDR_END]);
+        String domain = str.substring(offsets[HostLineParser.DOMAIN_START], offsets[HostLineParser.DOMAIN_END]);
+        return new AbstractMap.SimpleEntry<>(addr, domain);
     }
 
     /**
@@ -243,12 +512,11 @@ public class HostChecker {
      */
     public ReadPack readNextPack() {
         if (readValidLinesIndex == validLines.size()) return null;
-        String lineString = lines.get(validLines.get(readValidLinesIndex)-1);
         int line = validLines.get(readValidLinesIndex);
+        int base = readValidLinesIndex * HostLineParser.FIELDS;
         readValidLinesIndex++;
 
-        Map.Entry<String, String> dns = readValidString(lineString);
-        return new ReadPack(dns.getKey(), dns.getValue(), line);
+        return new ReadPack(lines.data(), packOffsets.array(), base, line);
     }
 
     /**
@@ -259,51 +527,315 @@ public class HostChecker {
      * @throws InterruptedException
      */
     public Set<Integer> getPingTimeoutLines(int threadNum, int timeout) throws InterruptedException {
-        ExecutorService executors = Executors.newFixedThreadPool(threadNum);
-        CountDownLatch latch = new CountDownLatch(validLines.size());
-        int tempLine = readValidLinesIndex;
-        Set<Integer> failedSet = new HashSet<>();
+        try (ProbeEngine engine = new ThreadPoolProbeEngine(threadNum)) {
+            return getPingTimeoutLines(engine, timeout);
+        }
+    }
 
-        readValidLinesIndex = 0;
-        while (true) {
-            ReadPack pack = readNextPack();
-            // 获取了所有的 DNS 键值对, 需要还原readValidLinesIndex
-            if (pack == null) {
-                readValidLinesIndex = tempLine;
-                break;
+    /**
+     * 使用指定的探测引擎获取所有超时的行
+     * @param engine 探测引擎
+     * @param timeout 超时时间
+     * @return 所有超时的行
+     * @throws InterruptedException
+     */
+    public Set<Integer> getPingTimeoutLines(ProbeEngine engine, int timeout) throws InterruptedException {
+        return probeGroups(engine, timeout, groupByAddress(), validLines.size(), null);
+    }
+
+    /**
+     * 使用指定的探测引擎只检查部分行, 获取其中超时的行
+     * @param engine 探测引擎
+     * @param timeout 超时时间
+     * @param lineIndexes 需要检查的行, 不是有效行的会被忽略
+     * @return 其中超时的行
+     * @throws InterruptedException
+     */
+    public Set<Integer> getPingTimeoutLines(ProbeEngine engine, int timeout, Set<Integer> lineIndexes) throws InterruptedException {
+        BitSet only = new BitSet(lines.size() + 1);
+        for (int line : lineIndexes) {
+            if (line > 0) only.set(line);
+        }
+        Map<String, List<ReadPack>> groups = groupByAddress(only);
+        int lineCount = 0;
+        for (List<ReadPack> packs : groups.values()) {
+            lineCount += packs.size();
+        }
+        return probeGroups(engine, timeout, groups, lineCount, null);
+    }
+
+    /**
+     * 使用指定的探测引擎获取所有超时的行, 每行的结果写入日志
+     * <p>日志继续检查时, 日志中已有结果的行不再探测, 其中超时的行直接计入结果</p>
+     * @param engine 探测引擎
+     * @param timeout 超时时间
+     * @param journal 探测结果日志, 由调用方关闭
+     * @return 所有超时的行
+     * @throws InterruptedException
+     * @throws IOException 日志无法读取或写入
+     */
+    public Set<Integer> getPingTimeoutLines(ProbeEngine engine, int timeout, ProbeJournal journal) throws InterruptedException, IOException {
+        journal.open(contentHash());
+        BitSet only = new BitSet(lines.size() + 1);
+        Set<Integer> replayedFailed = new HashSet<>();
+        int lineCount = 0;
+        for (int i = 0; i < validLines.size(); i++) {
+            int line = validLines.get(i);
+            if (!journal.isCovered(line)) {
+                only.set(line);
+                lineCount++;
+            } else if (journal.isFailed(line)) {
+                replayedFailed.add(line);
+            }
+        }
+        if (journal.getReplayedLines() > 0) {
+            System.out.println(
+                    "resume from journal: "
+                            + (validLines.size() - lineCount)
+                            + " lines already checked, "
+                            + replayedFailed.size()
+                            + " time out, "
+                            + lineCount
+                            + " lines left\n"
+            );
+        }
+        Set<Integer> failed = probeGroups(engine, timeout, groupByAddress(only), lineCount, journal);
+        failed.addAll(replayedFailed);
+        return failed;
+    }
+
+    private Set<Integer> probeGroups(ProbeEngine engine, int timeout, Map<String, List<ReadPack>> groups, int lineCount, ProbeJournal journal) throws InterruptedException {
+        long probeStart = System.nanoTime();
+        CountDownLatch latch = new CountDownLatch(groups.size());
+        // 探测线程只设置位和发布结果, 不需要加锁
+        ConcurrentBitSet failed = new ConcurrentBitSet(lines.size() + 1);
+        printProbeMessage(lineCount, groups.size());
+        metrics.probeScheduled(lineCount, groups.size());
+
+        try (ProbeReporter reporter = new ProbeReporter(reportMode, System.out)) {
+            // 每个地址只探测一次, 结果分发到所有引用该地址的行
+            for (Map.Entry<String, List<ReadPack>> group : groups.entrySet()) {
+                String addr = group.getKey();
+                List<ReadPack> packs = group.getValue();
+                long submitted = System.nanoTime();
+                metrics.probeStarted();
+                engine.probe(addr, timeout).whenComplete((result, e) -> {
+                    metrics.probeCompleted(outcomeOf(result, e), System.nanoTime() - submitted);
+                    try {
+                        // 探测出错时无法判断地址是否有效, 保留该行, 也不写入日志
+                        if (e == null && !result.isReachable()) {
+                            for (ReadPack pack : packs) {
+                                failed.set(pack.getLineIndex());
+                            }
+                        }
+                        if (e == null && journal != null) journal.record(packs, result.isReachable());
+                        reporter.report(packs, result, e);
+                    } finally {
+                        latch.countDown();
+                    }
+                });
+            }
+            latch.await();
+        }
+        metrics.recordPhase(ProbeMetrics.Phase.PROBE, System.nanoTime() - probeStart);
+        return failed.toSet();
+    }
+
+    /**
+     * 创建非阻塞的探测结果流, 订阅后才开始探测, 不输出每行的结果
+     * @param engine 探测引擎
+     * @param timeout 超时时间
+     * @return 探测结果流
+     */
+    public ProbeStream probeStream(ProbeEngine engine, int timeout) {
+        return probeStream(engine, timeout, ProbeStream.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * 创建非阻塞的探测结果流, 订阅后才开始探测, 不输出每行的结果
+     * @param engine 探测引擎
+     * @param timeout 超时时间
+     * @param bufferSize 已开始还没有结果的地址的行数和等待订阅者请求的结果合计的上限
+     * @return 探测结果流
+     */
+    public ProbeStream probeStream(ProbeEngine engine, int timeout, int bufferSize) {
+        return new ProbeStream(groupByAddress(), lines.size(), engine, timeout, bufferSize, metrics);
+    }
+
+    /**
+     * 非阻塞地获取所有超时的行
+     * @param engine 探测引擎
+     * @param timeout 超时时间
+     * @return 所有探测结束后完成, 取消时会取消正在进行的探测
+     */
+    public CompletableFuture<Set<Integer>> getPingTimeoutLinesAsync(ProbeEngine engine, int timeout) {
+        return probeStream(engine, timeout, Integer.MAX_VALUE).start();
+    }
+
+    /**
+     * 在总时间预算内使用指定的探测引擎获取超时的行, 地址按 {@link ProbeBudget} 的优先级开始探测
+     * <p>截止时还没有结果的地址, 以及使用缩短的超时时间仍然超时的地址不能确定是否有效, 不会出现在结果中。截止时还没有结果的探测被取消</p>
+     * @param engine 探测引擎
+     * @param timeout 单个探测的超时时间
+     * @param budget 总时间预算
+     * @return 确定超时的行
+     * @throws InterruptedException
+     */
+    public Set<Integer> getPingTimeoutLines(ProbeEngine engine, int timeout, ProbeBudget budget) throws InterruptedException {
+        long probeStart = System.nanoTime();
+        long deadline = probeStart + budget.getBudgetMillis() * 1_000_000L;
+        Map<String, List<ReadPack>> groups = groupByAddress();
+        List<Map.Entry<String, List<ReadPack>>> order = new ArrayList<>(groups.entrySet());
+        Map<String, Long> lastChecked = new HashMap<>();
+        for (String addr : groups.keySet()) {
+            lastChecked.put(addr, budget.lastChecked(addr));
+        }
+        // 从未检查的地址 (-1) 最先, 稳定排序保持相同优先级的行顺序
+        order.sort(Comparator.comparingLong(group -> lastChecked.get(group.getKey())));
+
+        ConcurrentBitSet failed = new ConcurrentBitSet(lines.size() + 1);
+        Semaphore window = new Semaphore(budget.getMaxOutstanding());
+        // 记录结果和截止都在 guard 上同步, 截止后开始返回的 failed 不会再被修改
+        Object guard = new Object();
+        AtomicBoolean finished = new AtomicBoolean(false);
+        List<CompletableFuture<ProbeResult>> futures = new ArrayList<>();
+        AtomicInteger conclusiveAddresses = new AtomicInteger();
+        AtomicInteger verifiedLines = new AtomicInteger();
+        AtomicInteger inconclusiveAddresses = new AtomicInteger();
+        int started = 0;
+        printProbeMessage(validLines.size(), groups.size());
+        metrics.probeScheduled(validLines.size(), groups.size());
+
+        try (ProbeReporter reporter = new ProbeReporter(reportMode, System.out)) {
+            for (Map.Entry<String, List<ReadPack>> group : order) {
+                long remaining = (deadline - System.nanoTime()) / 1_000_000L;
+                if (remaining < ProbeBudget.MIN_PROBE_TIMEOUT
+                        || !window.tryAcquire(remaining - ProbeBudget.MIN_PROBE_TIMEOUT, TimeUnit.MILLISECONDS)) break;
+                // 超时时间在开始时才计算, 随着预算减少而缩短
+                remaining = (deadline - System.nanoTime()) / 1_000_000L;
+                if (remaining < ProbeBudget.MIN_PROBE_TIMEOUT) {
+                    window.release();
+                    break;
+                }
+                int probeTimeout = (int) Math.min(timeout, remaining);
+                boolean shortened = probeTimeout < timeout;
+                List<ReadPack> packs = group.getValue();
+                long submitted = System.nanoTime();
+                started++;
+                metrics.probeStarted();
+                CompletableFuture<ProbeResult> future = shortened
+                        ? engine.probeShortened(group.getKey(), probeTimeout)
+                        : engine.probe(group.getKey(), probeTimeout);
+                futures.add(future);
+                future.whenComplete((result, e) -> {
+                    metrics.probeCompleted(outcomeOf(result, e), System.nanoTime() - submitted);
+                    try {
+                        synchronized (guard) {
+                            // 截止后的结果 (包括被取消的探测) 不再使用
+                            if (finished.get()) return;
+                            if (e == null && !result.isReachable() && shortened) {
+                                inconclusiveAddresses.incrementAndGet();
+                            } else if (e == null) {
+                                if (!result.isReachable()) {
+                                    for (ReadPack pack : packs) {
+                                        failed.set(pack.getLineIndex());
+                                    }
+                                }
+                                conclusiveAddresses.incrementAndGet();
+                                verifiedLines.addAndGet(packs.size());
+                            }
+                            reporter.report(packs, result, e);
+                        }
+                    } finally {
+                        window.release();
+                    }
+                });
+            }
+            // 等待已开始的探测, 最多到截止时间
+            long remaining = Math.max(0, (deadline - System.nanoTime()) / 1_000_000L);
+            window.tryAcquire(budget.getMaxOutstanding(), remaining, TimeUnit.MILLISECONDS);
+            synchronized (guard) {
+                finished.set(true);
             }
-            Runnable ping = () -> {
-               try {
-                   int pingTime = ping(pack.addr, timeout);
-                   if (pingTime == -1) {
-                       System.out.println(
-                               "ping: " + pack.domain + "\n      "
-                               + pack.addr
-                               + " is time out"
-                       );
-                       // 涉及异步调用共享资源需要确保操作同步
-                       synchronized (this) {
-                           failedSet.add(pack.lineIndex);
-                       }
-                   } else {
-                       System.out.println(
-                               "ping: " + pack.domain + "\n      "
-                               + pack.addr
-                               + " ping: "
-                               + pingTime
-                               + "ms"
-                       );
-                   }
-                   latch.countDown();
-               } catch (IOException e) {
-                   throw new RuntimeException(e);
-               }
-            };
-            executors.submit(ping);
-        }
-        latch.await();
-        executors.shutdown();
-        return failedSet;
+            // 取消截止时还没有结果的探测, 释放引擎中的位置
+            for (CompletableFuture<ProbeResult> future : futures) {
+                if (!future.isDone()) future.cancel(true);
+            }
+        }
+        metrics.recordPhase(ProbeMetrics.Phase.PROBE, System.nanoTime() - probeStart);
+        printBudgetMessage(
+                budget.getBudgetMillis(),
+                groups.size(),
+                started,
+                conclusiveAddresses.get(),
+                inconclusiveAddresses.get(),
+                validLines.size() - verifiedLines.get()
+        );
+        return failed.toSet();
+    }
+
+    static ProbeMetrics.Outcome outcomeOf(ProbeResult result, Throwable e) {
+        if (e != null) return ProbeMetrics.Outcome.ERROR;
+        return result.isReachable() ? ProbeMetrics.Outcome.REACHABLE : ProbeMetrics.Outcome.TIMEOUT;
+    }
+
+    static void printBudgetMessage(long budgetMillis, int addressCount, int started, int conclusive, int inconclusive, int unverifiedLines) {
+        System.out.println(
+                "\nbudget "
+                        + budgetMillis
+                        + "ms: "
+                        + conclusive
+                        + " of "
+                        + addressCount
+                        + " address verified ("
+                        + String.format("%.1f", addressCount == 0 ? 100.0 : conclusive * 100.0 / addressCount)
+                        + "%), "
+                        + (addressCount - started)
+                        + " not probed, "
+                        + inconclusive
+                        + " timed out with shortened timeout, "
+                        + unverifiedLines
+                        + " lines kept without verification"
+        );
+    }
+
+    /**
+     * 将所有有效行按地址分组, 保持行的顺序
+     * @return key: 地址, value: 使用该地址的数据包
+     */
+    Map<String, List<ReadPack>> groupByAddress() {
+        return groupByAddress(null);
+    }
+
+    /**
+     * 将部分有效行按地址分组, 保持行的顺序
+     * @param only 需要分组的行号, 为 null 时分组所有有效行
+     * @return key: 地址, value: 使用该地址的数据包
+     */
+    Map<String, List<ReadPack>> groupByAddress(BitSet only) {
+        Map<String, List<ReadPack>> groups = new LinkedHashMap<>();
+        int tempLine = readValidLinesIndex;
+        readValidLinesIndex = 0;
+        ReadPack pack;
+        while ((pack = readNextPack()) != null) {
+            if (only != null && !only.get(pack.getLineIndex())) continue;
+            groups.computeIfAbsent(pack.getAddr(), k -> new ArrayList<>()).add(pack);
+        }
+        // 获取了所有的 DNS 键值对, 需要还原readValidLinesIndex
+        readValidLinesIndex = tempLine;
+        return groups;
+    }
+
+    static void printProbeMessage(int lineCount, int addressCount) {
+        System.out.println(
+                "probe "
+                        + addressCount
+                        + " distinct address for "
+                        + lineCount
+                        + " lines, dedup ratio "
+                        + String.format("%.2f", addressCount == 0 ? 1.0 : (double) lineCount / addressCount)
+                        + "\n"
+        );
     }
 
     /**
@@ -322,6 +854,223 @@ public class HostChecker {
         return (int) (pingEnd - pingStart);
     }
 
+    /**
+     * 设置探测结果的输出格式, 默认为 {@link ProbeReporter.Mode#HUMAN}
+     * @param reportMode 输出格式
+     */
+    public void setReportMode(ProbeReporter.Mode reportMode) {
+        this.reportMode = reportMode;
+    }
+
+    /**
+     * @return 运行指标, 各阶段的耗时在执行时更新
+     */
+    public ProbeMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 重新从文件加载, 丢弃未保存的移除
+     * @throws AccessDeniedException 没有文件夹/文件的读权限
+     */
+    public void reload() throws AccessDeniedException {
+        readValidLinesIndex = 0;
+        isModified = false;
+        hasBom = false;
+        init();
+    }
+
+    /**
+     * 重新从文件加载, 丢弃未保存的移除, 并找出新增或修改的有效行
+     * <p>文件中与当前内容 (不包括已保存的移除) 相同的前缀不再分行, 解析和过滤, 只处理第一个不同的行之后的部分,
+     * 并只与原来这部分的有效行按内容的哈希比较。在末尾追加时, 除读取和逐字节比较前缀外, 开销只与追加的内容有关。
+     * 不是 UTF-8 或 BOM 变化时重新加载整个文件, 与原来所有的有效行比较</p>
+     * @return 内容在原来的有效行中不存在的有效行的行号
+     * @throws IOException 无法读取, 无法解码或文件过大
+     */
+    public Set<Integer> reloadChanged() throws IOException {
+        long loadStart = System.nanoTime();
+        File file = new File(dir, fileName);
+        checkReadableMessage(file);
+        readValidLinesIndex = 0;
+        isModified = false;
+        if (!charset.equals(StandardCharsets.UTF_8)) {
+            long[] known = validLineHashes(1);
+            loadFromFile();
+            return linesNotIn(known, 1);
+        }
+        Object version = fileVersion(file.toPath());
+        byte[] data = readFile(file);
+        int from = startsWithBom(data) ? 3 : 0;
+        int count = (from == 3) == hasBom ? unchangedPrefix(data, from) : 0;
+        if (count == 0) {
+            long[] known = validLineHashes(1);
+            loadFromBytes(file, data, version, loadStart);
+            return linesNotIn(known, 1);
+        }
+
+        long[] known = validLineHashes(count + 1);
+        int firstParsed = keepPrefix(data, count);
+        int firstFiltered = validLines.size();
+        // 相同的前缀已经校验过
+        validateUtf8(data, firstParsed < lines.size() ? lines.start(firstParsed) : data.length, file);
+        parseLines(firstParsed, String.valueOf(annotation).getBytes(StandardCharsets.UTF_8));
+        metrics.recordPhase(ProbeMetrics.Phase.LOAD, System.nanoTime() - loadStart);
+        filterLines(firstFiltered);
+        removedLines = new BitSet();
+        savedRemovedLines = new BitSet();
+        loadedSize = data.length;
+        loadedVersion = version.equals(fileVersion(file.toPath())) ? version : null;
+        printLoadMessage(validLines.size(), (System.nanoTime() - loadStart) / 1_000_000);
+        return linesNotIn(known, firstParsed + 1);
+    }
+
+    /**
+     * 与当前内容逐行比较, 已保存的移除不在文件中, 跳过
+     * @param next 文件的新内容
+     * @param from 新内容中第一行的位置
+     * @return 第一个不同的行的索引, 之前的行 (不包括已保存的移除) 与新内容的开头相同
+     */
+    private int unchangedPrefix(byte[] next, int from) {
+        byte[] data = lines.data();
+        int position = from;
+        int lastSame = -1;
+        int index = 0;
+        for (; index < lines.size(); index++) {
+            int line = index + 1;
+            if (savedRemovedLines.get(line)) continue;
+            // 未保存的移除在重新加载后恢复, 从这里开始重新解析
+            if (removedLines.get(line)) break;
+            int start = lines.start(index);
+            int end = index + 1 < lines.size() ? lines.start(index + 1) : (int) loadedSize;
+            int length = end - start;
+            if (position + length > next.length || !regionEquals(data, start, next, position, length)) break;
+            // 没有换行符的最后一行之后追加了内容
+            if (lines.end(index) == end && position + length != next.length) break;
+            position += length;
+            lastSame = index;
+        }
+        // 以 '\r' 结尾的行之后新增 '\n' 时, 两者组成同一个换行符, 这一行需要重新分行
+        if (lastSame >= 0 && position < next.length && next[position] == '\n') {
+            int end = lastSame + 1 < lines.size() ? lines.start(lastSame + 1) : (int) loadedSize;
+            if (lines.end(lastSame) == end - 1 && data[end - 1] == '\r') return lastSame;
+        }
+        return index;
+    }
+
+    private static boolean regionEquals(byte[] a, int aFrom, byte[] b, int bFrom, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[aFrom + i] != b[bFrom + i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * 保留前 count 行和其中的有效行, 改为使用新的内容并去掉已保存的移除, 之后的部分重新分行
+     * @param next 文件的新内容, 开头与前 count 行相同
+     * @param count 保留的行数, 按原来的行号
+     * @return 保留的行数, 按新的行号
+     */
+    private int keepPrefix(byte[] next, int count) {
+        int[] starts = new int[count];
+        int[] ends = new int[count];
+        int[] packs = packOffsets.array();
+        int kept = 0;
+        int validKept = 0;
+        // 已保存的移除的字节数, 原来的位置减去 shift 是新内容中的位置
+        int shift = 0;
+        for (int index = 0; index < count; index++) {
+            int line = index + 1;
+            int start = lines.start(index);
+            if (savedRemovedLines.get(line)) {
+                shift += (index + 1 < lines.size() ? lines.start(index + 1) : (int) loadedSize) - start;
+                continue;
+            }
+            starts[kept] = start - shift;
+            ends[kept] = lines.end(index) - shift;
+            kept++;
+            if (validKept < validLines.size() && validLines.get(validKept) == line) {
+                validLines.set(validKept, kept);
+                for (int i = validKept * HostLineParser.FIELDS; i < (validKept + 1) * HostLineParser.FIELDS; i++) {
+                    packs[i] -= shift;
+                }
+                validKept++;
+            }
+        }
+        int tailStart = (count < lines.size() ? lines.start(count) : (int) loadedSize) - shift;
+        validLines.truncate(validKept);
+        packOffsets.truncate(validKept * HostLineParser.FIELDS);
+        lines = LineStore.resume(next, starts, ends, kept, tailStart, next.length);
+        return kept;
+    }
+
+    /**
+     * @param firstLine 起始的行号
+     * @return 从 firstLine 开始的有效行内容的哈希, 从小到大排列
+     */
+    private long[] validLineHashes(int firstLine) {
+        int first = indexOfValidLine(firstLine);
+        if (first < 0) first = -first - 1;
+        long[] hashes = new long[validLines.size() - first];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = lineHash(validLines.get(first + i));
+        }
+        Arrays.sort(hashes);
+        return hashes;
+    }
+
+    /**
+     * @param known 从小到大排列的哈希
+     * @param firstLine 起始的行号
+     * @return 从 firstLine 开始内容的哈希不在 known 中的有效行
+     */
+    private Set<Integer> linesNotIn(long[] known, int firstLine) {
+        int first = indexOfValidLine(firstLine);
+        if (first < 0) first = -first - 1;
+        Set<Integer> result = new HashSet<>();
+        for (int i = first; i < validLines.size(); i++) {
+            int line = validLines.get(i);
+            if (Arrays.binarySearch(known, lineHash(line)) < 0) result.add(line);
+        }
+        return result;
+    }
+
+    /**
+     * @return 有效行的数量
+     */
+    public int getValidLineCount() {
+        return validLines.size();
+    }
+
+    /**
+     * 计算所有内容的 64 位 FNV-1a 哈希, 用于判断日志是否属于当前内容
+     * @return 哈希值
+     */
+    long contentHash() {
+        byte[] data = lines.data();
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : data) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * 计算一行原始内容的 64 位 FNV-1a 哈希, 用于比较两次加载之间的内容
+     * @param line 行号, 从 1 开始
+     * @return 哈希值
+     */
+    long lineHash(int line) {
+        byte[] data = lines.data();
+        long hash = 0xcbf29ce484222325L;
+        for (int i = lines.start(line - 1); i < lines.end(line - 1); i++) {
+            hash ^= data[i] & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
     /**
      * 获取有效行索引在内容中的位置
      * @param validLineIndex 有效行的索引
@@ -337,7 +1086,7 @@ public class HostChecker {
      * @return 内容中所在的位置
      */
     public int seekValidLineIndex(int validLineIndex) {
-        if (validLines.contains(validLineIndex)) readValidLinesIndex = validLineIndex;
+        if (indexOfValidLine(validLineIndex) >= 0) readValidLinesIndex = validLineIndex;
         return validLines.get(validLineIndex);
     }
 
@@ -347,44 +1096,69 @@ public class HostChecker {
      * @return 如果是有效行则返回内容中所在的位置, 否则返回-1
      */
     public int seekLine(int line) {
-        if (validLines.contains(line)) {
-            readValidLinesIndex = validLines.indexOf(line);
+        int index = indexOfValidLine(line);
+        if (index >= 0) {
+            readValidLinesIndex = index;
             return line;
         } else {
             return -1;
         }
     }
 
+    /**
+     * validLines 是有序的, 使用二分查找
+     * @param line 行号
+     * @return 行在 validLines 中的索引, 不是有效行返回负数
+     */
+    private int indexOfValidLine(int line) {
+        return Arrays.binarySearch(validLines.array(), 0, validLines.size(), line);
+    }
+
     /**
      * 移除所有在 removeIndexes 中行的读取内容的行
+     * <p>被移除的行只在 {@link #removedLines} 中标记, 保存时跳过, 其余行的行号不变。
+     * 有效行只压缩一次, 开销与行数成线性关系</p>
      * @param removeIndexes 需要移除的行索引
      */
     public void removeFromIndexes(Set<Integer> removeIndexes) {
+        long removeStart = System.nanoTime();
         if (removeIndexes == null || removeIndexes.isEmpty()) {
             printRemoveMessage(validLines.size(), validLines.size(), 0);
             return;
         }
 
-        List<Integer> sorted = new ArrayList<>(removeIndexes);
-        sorted.sort((i1, i2) -> {
-            if (Objects.equals(i1, i2)) {
-                return 0;
-            } else if (i1 > i2) {
-                return -1;
-            } else {
-                return 1;
-            }
-        });
+        BitSet marked = new BitSet(lines.size() + 1);
+        for (int index : removeIndexes) {
+            if (index > 0 && index <= lines.size()) marked.set(index);
+        }
 
         int removed = 0;
+        int kept = 0;
         int total = validLines.size();
-        for (int index : sorted) {
-            System.out.println("remove: " + lines.remove(index - 1));
-            validLines.remove(validLines.indexOf(index));
-            removed++;
-            if (!isModified) isModified = true;
+        int readIndex = readValidLinesIndex;
+        int[] offsets = packOffsets.array();
+        for (int i = 0; i < total; i++) {
+            int line = validLines.get(i);
+            if (marked.get(line)) {
+                System.out.println("remove: " + lines.get(line - 1));
+                removedLines.set(line);
+                removed++;
+                // 保持读取位置指向同一个有效行
+                if (i < readValidLinesIndex) readIndex--;
+                continue;
+            }
+            if (kept != i) {
+                validLines.set(kept, line);
+                System.arraycopy(offsets, i * HostLineParser.FIELDS, offsets, kept * HostLineParser.FIELDS, HostLineParser.FIELDS);
+            }
+            kept++;
         }
+        validLines.truncate(kept);
+        packOffsets.truncate(kept * HostLineParser.FIELDS);
+        readValidLinesIndex = readIndex;
+        if (removed > 0) isModified = true;
         printRemoveMessage(total, validLines.size(), removed);
+        metrics.recordPhase(ProbeMetrics.Phase.REMOVE, System.nanoTime() - removeStart);
     }
 
     private void printRemoveMessage(int total, int left, int removed) {
@@ -400,7 +1174,10 @@ public class HostChecker {
     }
 
     /**
-     * 将旧的文件改名为 xxx.backup 使用原文件名称创建新的文件
+     * 保存修改, 原文件保留为 xxx.backup 的硬链接 (可以通过 {@link #setBackup(boolean)} 关闭)
+     * <p>先写入同一文件夹中的临时文件并同步到磁盘, 再原子地替换原文件, 任何时候中断原文件都是完整的。
+     * 原文件在加载或上一次保存后没有变化时, 未修改的部分直接从原文件复制 ({@link FileChannel#transferTo}), 只跳过被移除的行,
+     * 否则按原编码重新写入所有行</p>
      */
     public void save() throws IOException {
         if (!isModified) {
@@ -408,34 +1185,173 @@ public class HostChecker {
             return;
         }
 
+        long saveStart = System.nanoTime();
         printSaveFileStartMessage();
         File file = new File(dir, fileName);
         Path filePath = file.toPath();
-        Path backup = null;
+        Path backupPath = null;
 
-        checkWriteableMessage(file);
+        checkWriteableMessage(new File(dir));
+        if (file.exists()) checkWriteableMessage(file);
 
-        // rename to backup
-        if (file.exists()) {
-            backup = Paths.get(dir + "\\" + fileName + ".backup");
-            int index = 1;
-            while (true) {
-                if (!backup.toFile().exists()) {
-                    Files.move(filePath, filePath.resolveSibling(backup));
-                    break;
+        if (backup && file.exists()) {
+            backupPath = filePath.resolveSibling(fileName + ".backup");
+            if (overwriteBackup) {
+                replaceBackup(filePath, backupPath);
+            } else {
+                int index = 1;
+                while (Files.exists(backupPath)) {
+                    backupPath = filePath.resolveSibling(fileName + " (" + index + ").backup");
+                    index++;
                 }
-                backup = Paths.get(dir + "\\" + fileName + " (" + index + ").backup");
-                index++;
+                createBackup(filePath, backupPath);
             }
         }
 
-        try (PrintWriter writer = new PrintWriter(file)) {
-            lines.forEach(writer::println);
-        } catch (FileNotFoundException e) {
-            throw new RuntimeException(e);
+        writeAtomically(filePath);
+
+        printSaveFileEndMessage(dir, backupPath, file.getName());
+        metrics.recordPhase(ProbeMetrics.Phase.SAVE, System.nanoTime() - saveStart);
+    }
+
+    /**
+     * 保存到指定的文件, 不创建备份, 没有修改时也会写入
+     * @param target 目标文件, 已存在时被原子地替换
+     * @throws IOException
+     */
+    void saveAs(Path target) throws IOException {
+        long saveStart = System.nanoTime();
+        writeAtomically(target);
+        metrics.recordPhase(ProbeMetrics.Phase.SAVE, System.nanoTime() - saveStart);
+    }
+
+    /**
+     * 设置保存时是否保留原文件, 默认为 true
+     * @param backup 是否保留原文件
+     */
+    public void setBackup(boolean backup) {
+        this.backup = backup;
+    }
+
+    /**
+     * 设置是否只保留一个备份, 默认为 false
+     * <p>为 true 时每次保存都替换 xxx.backup, 用于反复保存的常驻进程, 否则已存在的备份不被覆盖, 使用 xxx (N).backup</p>
+     * @param overwriteBackup 是否替换已存在的备份
+     */
+    public void setOverwriteBackup(boolean overwriteBackup) {
+        this.overwriteBackup = overwriteBackup;
+    }
+
+    /**
+     * 备份使用硬链接, 不复制内容; 文件系统不支持硬链接时复制
+     */
+    private static void createBackup(Path file, Path backupPath) throws IOException {
+        try {
+            Files.createLink(backupPath, file);
+        } catch (UnsupportedOperationException | IOException e) {
+            Files.copy(file, backupPath, StandardCopyOption.COPY_ATTRIBUTES);
         }
+    }
 
-        printSaveFileEndMessage(dir, backup, file.getName());
+    /**
+     * 先在临时名称上创建备份, 再原子地替换已存在的备份, 中断时原来的备份仍然完整
+     */
+    private static void replaceBackup(Path file, Path backupPath) throws IOException {
+        Path temp = backupPath.resolveSibling(backupPath.getFileName() + ".tmp");
+        Files.deleteIfExists(temp);
+        createBackup(file, temp);
+        try {
+            Files.move(temp, backupPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, backupPath, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * 通过 {@link AtomicFiles} 写入临时文件并原子地替换目标文件
+     * @param target 目标文件
+     * @throws IOException
+     */
+    private void writeAtomically(Path target) throws IOException {
+        Path source = Paths.get(dir, fileName);
+        boolean[] spliced = {false};
+        AtomicFiles.write(target, out -> {
+            if (loadedVersion != null && Files.exists(source) && loadedVersion.equals(fileVersion(source))) {
+                try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+                    splice(in, out);
+                }
+                spliced[0] = true;
+            } else {
+                writeLines(Channels.newOutputStream(out));
+            }
+        });
+        if (!target.toAbsolutePath().equals(source.toAbsolutePath())) return;
+        if (spliced[0]) {
+            // 新文件只是去掉了被移除的行, 下一次保存仍然可以从新文件复制
+            savedRemovedLines = (BitSet) removedLines.clone();
+            loadedVersion = fileVersion(source);
+        } else {
+            // 重新写入时换行符可能变化, 行的位置不再对应文件内容
+            loadedVersion = null;
+        }
+    }
+
+    /**
+     * 从原文件复制被移除的行之间的部分, 包括原来的换行符和 BOM
+     * <p>每个被移除的行只产生一次复制, 开销与移除的行数成正比, 复制由操作系统完成。
+     * 上一次保存已经去掉的行 ({@link #savedRemovedLines}) 不在原文件中, 之后的位置按去掉的字节数前移</p>
+     * @param in 加载时或上一次保存后的原文件
+     * @param out 目标文件
+     * @throws IOException
+     */
+    private void splice(FileChannel in, FileChannel out) throws IOException {
+        // position 是加载的内容中的位置, 减去 shift 是原文件中的位置
+        long position = 0;
+        long shift = 0;
+        for (int line = removedLines.nextSetBit(1); line >= 0; line = removedLines.nextSetBit(line + 1)) {
+            int index = line - 1;
+            long start = lines.start(index);
+            long end = index + 1 < lines.size() ? lines.start(index + 1) : loadedSize;
+            transfer(in, position - shift, start - shift, out);
+            if (savedRemovedLines.get(line)) shift += end - start;
+            position = end;
+        }
+        transfer(in, position - shift, in.size(), out);
+    }
+
+    private static void transfer(FileChannel in, long from, long to, FileChannel out) throws IOException {
+        while (from < to) {
+            from += in.transferTo(from, to - from, out);
+        }
+    }
+
+    /**
+     * 使用原编码写入所有未被移除的行
+     * @param output 输出流, 写入后不关闭
+     * @throws IOException
+     */
+    private void writeLines(OutputStream output) throws IOException {
+        if (charset.equals(StandardCharsets.UTF_8)) {
+            // 内容本身就是 UTF-8, 直接写入原始字节
+            byte[] separator = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+            OutputStream out = new BufferedOutputStream(output);
+            if (hasBom) out.write(new byte[]{(byte) 0xEF, (byte) 0xBB, (byte) 0xBF});
+            for (int i = 0; i < lines.size(); i++) {
+                if (removedLines.get(i + 1)) continue;
+                lines.write(i, out);
+                out.write(separator);
+            }
+            out.flush();
+        } else {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(output, charset));
+            if (hasBom) writer.write('\uFEFF');
+            for (int i = 0; i < lines.size(); i++) {
+                if (removedLines.get(i + 1)) continue;
+                writer.write(lines.get(i));
+                writer.write(System.lineSeparator());
+            }
+            writer.flush();
+        }
     }
 
     private void printSaveFileStartMessage() {
@@ -449,7 +1365,7 @@ public class HostChecker {
             System.out.println(
                     "\nIn \""
                             + dir
-                            + "\", old file is rename to \""
+                            + "\", old file is backed up as \""
                             + backupName.getFileName()
                             + "\", new file is \""
                             + newFileName
@@ -476,23 +1392,124 @@ public class HostChecker {
         save();
     }
 
+    /**
+     * 使用指定的探测引擎对所有读取的内容进行测试并将超时部分移除, 将旧的文件改名为 xxx.backup 使用原文件名称创建新的文件
+     * @param engine 探测引擎
+     * @param timeout 超时时间
+     */
+    public void pingAndResolve(ProbeEngine engine, int timeout) throws InterruptedException, IOException {
+        removeFromIndexes(getPingTimeoutLines(engine, timeout));
+        save();
+    }
+
+    /**
+     * 使用指定的探测引擎对所有读取的内容进行测试并将超时部分移除, 每行的结果写入日志, 日志中已有结果的行不再探测
+     * @param engine 探测引擎
+     * @param timeout 超时时间
+     * @param journal 探测结果日志, 由调用方关闭
+     */
+    public void pingAndResolve(ProbeEngine engine, int timeout, ProbeJournal journal) throws InterruptedException, IOException {
+        removeFromIndexes(getPingTimeoutLines(engine, timeout, journal));
+        save();
+    }
+
+    /**
+     * 在总时间预算内使用指定的探测引擎进行测试并将确定超时的部分移除, 将旧的文件改名为 xxx.backup 使用原文件名称创建新的文件
+     * @param engine 探测引擎
+     * @param timeout 单个探测的超时时间
+     * @param budget 总时间预算, 不包括移除和保存的时间
+     */
+    public void pingAndResolve(ProbeEngine engine, int timeout, ProbeBudget budget) throws InterruptedException, IOException {
+        removeFromIndexes(getPingTimeoutLines(engine, timeout, budget));
+        save();
+    }
+
     /**
      * 存储地址, 域名, 所在信息所在行
+     * <p>地址和域名只记录在行内容中的位置, 第一次获取时才创建字符串</p>
      */
     public static class ReadPack {
-        final String addr;
-        final String domain;
-        final Integer lineIndex;
+        private static final byte[] NO_ANNOTATION = new byte[0];
+
+        private final byte[] data;
+        private final int addrStart;
+        private final int addrEnd;
+        private final int domainStart;
+        private final int domainEnd;
+        private final int domainsEnd;
+        private final int lineIndex;
+        private String addr;
+        private String domain;
 
         public ReadPack(String addr, String domain, int lineIndex) {
+            byte[] addrBytes = addr.getBytes(StandardCharsets.UTF_8);
+            this.data = (addr + " " + domain).getBytes(StandardCharsets.UTF_8);
+            this.addrStart = 0;
+            this.addrEnd = addrBytes.length;
+            this.domainStart = addrBytes.length + 1;
+            this.domainEnd = data.length;
+            this.domainsEnd = data.length;
+            this.lineIndex = lineIndex;
             this.addr = addr;
             this.domain = domain;
+        }
+
+        /**
+         * @param data 行内容所在的字节数组
+         * @param offsets {@link HostLineParser} 解析出的位置
+         * @param base 位置在 offsets 中的起始索引
+         * @param lineIndex 所在行
+         */
+        ReadPack(byte[] data, int[] offsets, int base, int lineIndex) {
+            this.data = data;
+            this.addrStart = offsets[base + HostLineParser.ADDR_START];
+            this.addrEnd = offsets[base + HostLineParser.ADDR_END];
+            this.domainStart = offsets[base + HostLineParser.DOMAIN_START];
+            this.domainEnd = offsets[base + HostLineParser.DOMAIN_END];
+            this.domainsEnd = offsets[base + HostLineParser.DOMAINS_END];
             this.lineIndex = lineIndex;
         }
 
+        /**
+         * @return 地址
+         */
+        public String getAddr() {
+            if (addr == null) addr = new String(data, addrStart, addrEnd - addrStart, StandardCharsets.UTF_8);
+            return addr;
+        }
+
+        /**
+         * @return 第一个域名
+         */
+        public String getDomain() {
+            if (domain == null) domain = new String(data, domainStart, domainEnd - domainStart, StandardCharsets.UTF_8);
+            return domain;
+        }
+
+        /**
+         * @return 该行的所有域名
+         */
+        public List<String> getDomains() {
+            List<String> domains = new ArrayList<>();
+            int i = domainStart;
+            while (i < domainsEnd) {
+                int end = HostLineParser.skipToken(data, i, domainsEnd, NO_ANNOTATION);
+                domains.add(new String(data, i, end - i, StandardCharsets.UTF_8));
+                i = HostLineParser.skipSeparators(data, end, domainsEnd);
+            }
+            return domains;
+        }
+
+        /**
+         * @return 所在行
+         */
+        public int getLineIndex() {
+            return lineIndex;
+        }
+
         @Override
         public String toString() {
-            return "[address=" + addr + ", domain=" + domain + ", lineIndex=" + lineIndex + "]\n";
+            return "[address=" + getAddr() + ", domain=" + getDomain() + ", lineIndex=" + lineIndex + "]\n";
         }
     }
 }
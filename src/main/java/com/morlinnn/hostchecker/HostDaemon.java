@@ -0,0 +1,475 @@
+package com.morlinnn.hostchecker;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 常驻的检查进程, 在内存中保留已加载的文件和每个地址的检查状态, 按计划重新检查
+ * <ul>
+ *     <li>每个地址在上一次检查后经过 interval (加减 jitter 比例的随机时间) 再次检查,
+ *     第一次检查的时间在 [0, interval) 中均匀分布, 不会同时检查所有地址</li>
+ *     <li>同时检查的地址不超过 maxOutstanding 个, 到期的地址按到期时间排队</li>
+ *     <li>超时的地址所在的行被移除并保存, 文件被外部修改时重新加载, 未变化的地址保留原来的计划</li>
+ *     <li>只监听 127.0.0.1 的 HTTP 接口: GET /status 状态, POST /check[?address=地址] 立即检查, POST /reload 重新加载</li>
+ * </ul>
+ * 没有移除时每次调度的开销只与到期的地址数量有关; 有移除时压缩有效行的开销与行数有关,
+ * 保存只复制被移除的行之间的部分, 备份只保留一个 xxx.backup。
+ * 所有状态只在调度线程中访问
+ */
+public class HostDaemon implements AutoCloseable {
+    public static final int DEFAULT_PORT = 8423;
+    public static final double DEFAULT_JITTER = 0.1;
+    public static final int DEFAULT_MAX_OUTSTANDING = 64;
+    private static final long TICK_MILLIS = 1000;
+
+    private final HostChecker checker;
+    private final Path file;
+    private final ProbeEngine engine;
+    private final int timeout;
+    private final long interval;
+    private final double jitter;
+    private final int maxOutstanding;
+    private final ScheduledExecutorService scheduler;
+    private final HttpServer server;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final Random random = new Random();
+    private volatile boolean closed = false;
+
+    // 以下字段只在调度线程中访问
+    private Map<String, AddressState> states = new HashMap<>();
+    private final PriorityQueue<AddressState> due = new PriorityQueue<>((a, b) -> Long.compare(a.nextCheck, b.nextCheck));
+    private final Set<Integer> pendingRemoval = new HashSet<>();
+    private Object version;
+    private int inFlight = 0;
+    private long probes = 0;
+    private long reachable = 0;
+    private long timeouts = 0;
+    private long errors = 0;
+    private long removedLines = 0;
+    private long saves = 0;
+    private long reloads = 0;
+    private String lastError;
+
+    /**
+     * @param checker 已从文件加载的检查器
+     * @param dir 文件所在路径
+     * @param fileName 文件名称
+     * @param engine 探测引擎, 不能读取缓存的结果, 否则在缓存过期前不会重新检查
+     * @param timeout 超时时间
+     * @param interval 每个地址重新检查的间隔 (ms)
+     * @param port HTTP 端口, 0 表示随机端口
+     * @throws IOException 无法监听端口
+     */
+    public HostDaemon(HostChecker checker, String dir, String fileName, ProbeEngine engine, int timeout, long interval, int port) throws IOException {
+        this(checker, dir, fileName, engine, timeout, interval, DEFAULT_JITTER, DEFAULT_MAX_OUTSTANDING, port);
+    }
+
+    /**
+     * @param checker 已从文件加载的检查器
+     * @param dir 文件所在路径
+     * @param fileName 文件名称
+     * @param engine 探测引擎, 不能读取缓存的结果, 否则在缓存过期前不会重新检查
+     * @param timeout 超时时间
+     * @param interval 每个地址重新检查的间隔 (ms)
+     * @param jitter 间隔随机变化的比例, [0, 1)
+     * @param maxOutstanding 同时检查的地址数量上限
+     * @param port HTTP 端口, 0 表示随机端口
+     * @throws IOException 无法监听端口
+     */
+    public HostDaemon(HostChecker checker, String dir, String fileName, ProbeEngine engine, int timeout,
+                      long interval, double jitter, int maxOutstanding, int port) throws IOException {
+        if (interval < 1) throw new IllegalArgumentException("interval must be positive");
+        if (jitter < 0 || jitter >= 1) throw new IllegalArgumentException("jitter must be in [0, 1)");
+        if (maxOutstanding < 1) throw new IllegalArgumentException("maxOutstanding must be positive");
+        this.checker = checker;
+        // 每次移除都会保存, 只保留一个备份
+        checker.setOverwriteBackup(true);
+        this.file = Paths.get(dir, fileName);
+        this.engine = engine;
+        this.timeout = timeout;
+        this.interval = interval;
+        this.jitter = jitter;
+        this.maxOutstanding = maxOutstanding;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "host-daemon");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/", this::handle);
+    }
+
+    /**
+     * 开始调度和 HTTP 接口, 阻塞直到 {@link #close()}
+     * @throws InterruptedException
+     */
+    public void run() throws InterruptedException {
+        call(() -> {
+            version = version();
+            rebuild(new HashMap<>(), true);
+            return null;
+        });
+        scheduler.scheduleWithFixedDelay(this::tick, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+        server.start();
+        System.out.println("daemon is listening on http://127.0.0.1:" + getPort() + "/status");
+        stopped.await();
+    }
+
+    /**
+     * @return HTTP 接口实际监听的端口
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * 根据当前加载的内容重建所有地址的状态
+     * @param previous 重新加载前的状态, 仍然存在的地址保留原来的计划
+     * @param spread 新的地址是否在 [0, interval) 中分散, false 时立即检查
+     */
+    private void rebuild(Map<String, AddressState> previous, boolean spread) {
+        long now = System.currentTimeMillis();
+        Map<String, AddressState> rebuilt = new HashMap<>();
+        due.clear();
+        for (Map.Entry<String, List<HostChecker.ReadPack>> group : checker.groupByAddress().entrySet()) {
+            AddressState state = new AddressState(group.getKey(), group.getValue());
+            AddressState old = previous.get(group.getKey());
+            if (old != null) {
+                state.nextCheck = old.nextCheck;
+            } else {
+                state.nextCheck = spread ? now + (long) (random.nextDouble() * interval) : now;
+            }
+            rebuilt.put(state.address, state);
+            due.add(state);
+        }
+        states = rebuilt;
+    }
+
+    private void tick() {
+        try {
+            Object current = version();
+            if (!current.equals(version)) reload(current);
+            long now = System.currentTimeMillis();
+            AddressState state;
+            while (inFlight < maxOutstanding && (state = due.peek()) != null && state.nextCheck <= now) {
+                due.poll();
+                start(state);
+            }
+            flushRemovals();
+        } catch (IOException | RuntimeException e) {
+            // 文件可能正在被写入, 下一次调度时重试
+            lastError = e.toString();
+            System.out.println("daemon tick failed: " + e);
+        }
+    }
+
+    private void reload(Object current) throws IOException {
+        checker.reload();
+        version = current;
+        reloads++;
+        // 重新加载后行号可能变化, 还未移除的行需要重新检查
+        pendingRemoval.clear();
+        rebuild(states, false);
+        System.out.println("file is modified, reloaded " + states.size() + " address");
+    }
+
+    private void start(AddressState state) {
+        inFlight++;
+        probes++;
+        state.inFlight = true;
+        checker.getMetrics().probeStarted();
+        long submitted = System.nanoTime();
+        try {
+            engine.probe(state.address, timeout).whenComplete((result, e) -> {
+                try {
+                    scheduler.execute(() -> completed(state, result, e, submitted));
+                } catch (RejectedExecutionException ignored) {
+                    // 已关闭
+                }
+            });
+        } catch (RuntimeException e) {
+            completed(state, null, e, submitted);
+        }
+    }
+
+    private void completed(AddressState state, ProbeResult result, Throwable e, long submitted) {
+        inFlight--;
+        state.inFlight = false;
+        Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+        ProbeMetrics.Outcome outcome = cause != null
+                ? ProbeMetrics.Outcome.ERROR
+                : result.isReachable() ? ProbeMetrics.Outcome.REACHABLE : ProbeMetrics.Outcome.TIMEOUT;
+        checker.getMetrics().probeCompleted(outcome, System.nanoTime() - submitted);
+        // 检查期间文件被重新加载, 结果对应的行号已经无效
+        if (states.get(state.address) != state) return;
+
+        if (outcome == ProbeMetrics.Outcome.TIMEOUT) {
+            timeouts++;
+            states.remove(state.address);
+            for (HostChecker.ReadPack pack : state.packs) {
+                pendingRemoval.add(pack.getLineIndex());
+            }
+            return;
+        }
+        if (outcome == ProbeMetrics.Outcome.ERROR) {
+            errors++;
+            lastError = String.valueOf(cause);
+        } else {
+            reachable++;
+        }
+        state.nextCheck = System.currentTimeMillis() + nextInterval();
+        due.add(state);
+    }
+
+    /**
+     * @return 加减 jitter 比例的随机间隔
+     */
+    private long nextInterval() {
+        return (long) (interval * (1 - jitter + 2 * jitter * random.nextDouble()));
+    }
+
+    /**
+     * 移除超时的行并保存, 每次调度最多保存一次
+     */
+    private void flushRemovals() throws IOException {
+        if (pendingRemoval.isEmpty()) return;
+        // 保存前文件又被修改时放弃, 由下一次调度重新加载
+        if (!version().equals(version)) return;
+        checker.removeFromIndexes(pendingRemoval);
+        removedLines += pendingRemoval.size();
+        pendingRemoval.clear();
+        checker.save();
+        saves++;
+        version = version();
+    }
+
+    /**
+     * @param address 需要立即检查的地址, 为 null 时检查所有地址
+     * @return 加入队列的地址数量, address 不在文件中时返回 -1
+     */
+    private int trigger(String address) {
+        long now = System.currentTimeMillis();
+        if (address != null) {
+            AddressState state = states.get(address);
+            if (state == null) return -1;
+            // 正在检查的地址不在队列中
+            if (state.inFlight) return 0;
+            due.remove(state);
+            state.nextCheck = now;
+            due.add(state);
+            return 1;
+        }
+        due.clear();
+        for (AddressState state : states.values()) {
+            if (state.inFlight) continue;
+            state.nextCheck = now;
+            due.add(state);
+        }
+        return due.size();
+    }
+
+    private String status() {
+        long now = System.currentTimeMillis();
+        int dueNow = 0;
+        for (AddressState state : due) {
+            if (state.nextCheck <= now) dueNow++;
+        }
+        AddressState next = due.peek();
+        StringBuilder builder = new StringBuilder();
+        builder.append("{\"file\":");
+        ProbeReporter.appendJsonString(file.toAbsolutePath().toString(), builder);
+        builder.append(",\"validLines\":").append(checker.getValidLineCount())
+                .append(",\"address\":").append(states.size())
+                .append(",\"due\":").append(dueNow)
+                .append(",\"inFlight\":").append(inFlight)
+                .append(",\"nextCheckMillis\":").append(next == null ? -1 : Math.max(0, next.nextCheck - now))
+                .append(",\"intervalMillis\":").append(interval)
+                .append(",\"probes\":").append(probes)
+                .append(",\"reachable\":").append(reachable)
+                .append(",\"timeouts\":").append(timeouts)
+                .append(",\"errors\":").append(errors)
+                .append(",\"removedLines\":").append(removedLines + pendingRemoval.size())
+                .append(",\"saves\":").append(saves)
+                .append(",\"reloads\":").append(reloads)
+                .append(",\"lastError\":");
+        if (lastError == null) {
+            builder.append("null");
+        } else {
+            ProbeReporter.appendJsonString(lastError, builder);
+        }
+        builder.append(",\"metrics\":").append(checker.getMetrics().toJson()).append('}');
+        return builder.toString();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRemoteAddress().getAddress().isLoopbackAddress()) {
+                respond(exchange, 403, "{\"error\":\"forbidden\"}");
+                return;
+            }
+            String path = exchange.getRequestURI().getPath();
+            String method = exchange.getRequestMethod();
+            if (path.equals("/status")) {
+                if (!method.equals("GET")) {
+                    respond(exchange, 405, "{\"error\":\"use GET\"}");
+                } else {
+                    respond(exchange, 200, call(this::status));
+                }
+            } else if (path.equals("/check")) {
+                if (!method.equals("POST")) {
+                    respond(exchange, 405, "{\"error\":\"use POST\"}");
+                } else {
+                    String address;
+                    try {
+                        address = queryParameter(exchange.getRequestURI(), "address");
+                    } catch (IllegalArgumentException e) {
+                        respond(exchange, 400, "{\"error\":\"invalid query\"}");
+                        return;
+                    }
+                    int queued = call(() -> trigger(address));
+                    if (queued < 0) {
+                        respond(exchange, 404, "{\"error\":\"address is not in the file\"}");
+                    } else {
+                        respond(exchange, 202, "{\"queued\":" + queued + "}");
+                    }
+                }
+            } else if (path.equals("/reload")) {
+                if (!method.equals("POST")) {
+                    respond(exchange, 405, "{\"error\":\"use POST\"}");
+                } else {
+                    int count = call(() -> {
+                        reload(version());
+                        return states.size();
+                    });
+                    respond(exchange, 200, "{\"address\":" + count + "}");
+                }
+            } else {
+                respond(exchange, 404, "{\"error\":\"not found\"}");
+            }
+        } catch (IOException | RuntimeException | InterruptedException e) {
+            StringBuilder builder = new StringBuilder("{\"error\":");
+            ProbeReporter.appendJsonString(e.toString(), builder);
+            respond(exchange, 500, builder.append('}').toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * 按 application/x-www-form-urlencoded 解码, 先分割再解码, 值中可以包含编码后的 '&' 和 '='
+     * @throws IllegalArgumentException 编码不合法
+     */
+    private static String queryParameter(URI uri, String name) throws IOException {
+        String query = uri.getRawQuery();
+        if (query == null) return null;
+        for (String pair : query.split("&")) {
+            int index = pair.indexOf('=');
+            if (index > 0 && URLDecoder.decode(pair.substring(0, index), "UTF-8").equals(name)) {
+                return URLDecoder.decode(pair.substring(index + 1), "UTF-8");
+            }
+        }
+        return null;
+    }
+
+    private static void respond(HttpExchange exchange, int code, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * 在调度线程中执行并等待结果
+     */
+    private <T> T call(Callable<T> task) throws InterruptedException {
+        try {
+            return scheduler.submit(task).get(30, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new RuntimeException(cause);
+        } catch (TimeoutException e) {
+            throw new RuntimeException("daemon is busy", e);
+        }
+    }
+
+    /**
+     * @return 文件的修改时间和大小
+     */
+    private Object version() throws IOException {
+        return Arrays.asList(Files.getLastModifiedTime(file), Files.size(file));
+    }
+
+    /**
+     * 停止 HTTP 接口和调度, 保存还未保存的移除
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        server.stop(0);
+        try {
+            scheduler.submit(() -> {
+                try {
+                    flushRemovals();
+                } catch (IOException e) {
+                    System.out.println("daemon save failed: " + e);
+                }
+            });
+        } catch (RejectedExecutionException ignored) {
+            // 已关闭
+        }
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        stopped.countDown();
+    }
+
+    /**
+     * 单个地址的检查状态
+     */
+    private static class AddressState {
+        final String address;
+        final List<HostChecker.ReadPack> packs;
+        long nextCheck;
+        boolean inFlight = false;
+
+        AddressState(String address, List<HostChecker.ReadPack> packs) {
+            this.address = address;
+            this.packs = packs;
+        }
+    }
+}
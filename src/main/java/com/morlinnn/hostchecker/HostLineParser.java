@@ -0,0 +1,157 @@
+package com.morlinnn.hostchecker;
+
+/**
+ * Host 行的解析, 只扫描一次字节或字符并把地址和域名的位置写入 int 数组, 不创建任何对象
+ * <p>一行的格式为 "地址 域名 [域名...] [注释]", 空格, 制表符等空白字符都可以作为分隔符,
+ * 注释符号之后的内容被忽略</p>
+ */
+final class HostLineParser {
+    /**
+     * 每行写入的 int 数量
+     */
+    static final int FIELDS = 5;
+    static final int ADDR_START = 0;
+    static final int ADDR_END = 1;
+    static final int DOMAIN_START = 2;
+    /**
+     * 第一个域名的结束位置
+     */
+    static final int DOMAIN_END = 3;
+    /**
+     * 最后一个域名的结束位置
+     */
+    static final int DOMAINS_END = 4;
+
+    private HostLineParser() {
+    }
+
+    /**
+     * 解析一行
+     * @param line 原字符串
+     * @param annotation 注释符号
+     * @param out 成功时从 out[base] 开始写入 {@link #FIELDS} 个位置
+     * @param base 写入的起始位置
+     * @return 是否是包含地址和域名的有效行
+     */
+    static boolean parse(CharSequence line, char annotation, int[] out, int base) {
+        int length = line.length();
+        int addrStart = skipSeparators(line, 0, length);
+        if (addrStart == length || line.charAt(addrStart) == annotation) return false;
+        int addrEnd = skipToken(line, addrStart, length, annotation);
+
+        int domainStart = skipSeparators(line, addrEnd, length);
+        if (domainStart == length || line.charAt(domainStart) == annotation) return false;
+        int domainEnd = skipToken(line, domainStart, length, annotation);
+
+        int domainsEnd = domainEnd;
+        while (true) {
+            int next = skipSeparators(line, domainsEnd, length);
+            if (next == length || line.charAt(next) == annotation) break;
+            domainsEnd = skipToken(line, next, length, annotation);
+        }
+
+        out[base + ADDR_START] = addrStart;
+        out[base + ADDR_END] = addrEnd;
+        out[base + DOMAIN_START] = domainStart;
+        out[base + DOMAIN_END] = domainEnd;
+        out[base + DOMAINS_END] = domainsEnd;
+        return true;
+    }
+
+    /**
+     * 解析字节数组中 [from, to) 的一行, 写入的位置是在 data 中的绝对位置
+     * @param data UTF-8 内容
+     * @param from 行的起始位置
+     * @param to 行的结束位置
+     * @param annotation 注释符号的 UTF-8 编码
+     * @param out 成功时从 out[base] 开始写入 {@link #FIELDS} 个位置
+     * @param base 写入的起始位置
+     * @return 是否是包含地址和域名的有效行
+     */
+    static boolean parse(byte[] data, int from, int to, byte[] annotation, int[] out, int base) {
+        int addrStart = skipSeparators(data, from, to);
+        if (addrStart == to || isAnnotation(data, addrStart, to, annotation)) return false;
+        int addrEnd = skipToken(data, addrStart, to, annotation);
+
+        int domainStart = skipSeparators(data, addrEnd, to);
+        if (domainStart == to || isAnnotation(data, domainStart, to, annotation)) return false;
+        int domainEnd = skipToken(data, domainStart, to, annotation);
+
+        int domainsEnd = domainEnd;
+        while (true) {
+            int next = skipSeparators(data, domainsEnd, to);
+            if (next == to || isAnnotation(data, next, to, annotation)) break;
+            domainsEnd = skipToken(data, next, to, annotation);
+        }
+
+        out[base + ADDR_START] = addrStart;
+        out[base + ADDR_END] = addrEnd;
+        out[base + DOMAIN_START] = domainStart;
+        out[base + DOMAIN_END] = domainEnd;
+        out[base + DOMAINS_END] = domainsEnd;
+        return true;
+    }
+
+    /**
+     * @return 从 from 开始第一个不是分隔符的位置
+     */
+    static int skipSeparators(byte[] data, int from, int to) {
+        while (from < to && isSeparator(data[from])) from++;
+        return from;
+    }
+
+    /**
+     * @return 从 from 开始第一个分隔符或注释符号的位置
+     */
+    static int skipToken(byte[] data, int from, int to, byte[] annotation) {
+        while (from < to && !isSeparator(data[from]) && !isAnnotation(data, from, to, annotation)) from++;
+        return from;
+    }
+
+    /**
+     * 非 ASCII 的字节不会是分隔符
+     */
+    static boolean isSeparator(byte b) {
+        return b >= 0 && b <= ' ';
+    }
+
+    /**
+     * @return data 在 index 处是否是注释符号
+     */
+    private static boolean isAnnotation(byte[] data, int index, int to, byte[] annotation) {
+        if (annotation.length == 0 || data[index] != annotation[0]) return false;
+        if (annotation.length == 1) return true;
+        if (index + annotation.length > to) return false;
+        for (int i = 1; i < annotation.length; i++) {
+            if (data[index + i] != annotation[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return 从 from 开始第一个不是分隔符的位置
+     */
+    static int skipSeparators(CharSequence line, int from, int to) {
+        while (from < to && isSeparator(line.charAt(from))) from++;
+        return from;
+    }
+
+    /**
+     * @return 从 from 开始第一个分隔符或注释符号的位置
+     */
+    static int skipToken(CharSequence line, int from, int to, char annotation) {
+        while (from < to) {
+            char c = line.charAt(from);
+            if (isSeparator(c) || c == annotation) break;
+            from++;
+        }
+        return from;
+    }
+
+    /**
+     * 空格, 制表符, 换行等空白控制字符都是分隔符
+     */
+    static boolean isSeparator(char c) {
+        return c <= ' ';
+    }
+}
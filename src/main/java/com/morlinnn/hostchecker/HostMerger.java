@@ -0,0 +1,691 @@
+package com.morlinnn.hostchecker;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 合并多个 Host 来源, 去除重复的 (地址, 域名) 后只检查一次每个地址, 写入一个合并后的文件
+ * <ul>
+ *     <li>来源并行加载, 同时加载的来源不超过 loadThreads 个, 按顺序合并后即释放</li>
+ *     <li>合并结果逐行写入临时文件, 只保留已出现的 (地址, 域名) 的 64 位哈希, 不保留所有来源的内容</li>
+ *     <li>同一 (地址, 域名) 只保留第一次出现的来源, 同一行中新的域名写在一行</li>
+ *     <li>合并时每个新出现的地址立即开始探测, 每个地址只探测一次, 同时进行的探测不超过 {@link #MAX_OUTSTANDING} 个,
+ *     不把合并结果加载到 {@link HostChecker}; 合并结束后从临时文件逐行复制到合并文件, 跳过超时的行</li>
+ * </ul>
+ * 地址和域名按 ASCII 忽略大小写比较, 哈希冲突 (概率约为条目数的平方 / 2^65) 时后出现的条目被当作重复<br>
+ * 使用时间预算时地址按在合并结果中出现的顺序探测, 不按上次检查的时间排序<br>
+ * 合并后的文件中每个来源以 "# source: 来源" 开头, 报告中记录每个来源的条目数, 重复数和移除数
+ */
+public class HostMerger {
+    /**
+     * 没有时间预算时同时进行的探测数量上限
+     */
+    public static final int MAX_OUTSTANDING = 1024;
+
+    private static final byte[] NO_ANNOTATION = new byte[0];
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final List<Source> sources;
+    private final String dir;
+    private final String fileName;
+    private final AddressFilter filter;
+    private final DomainFilter domainFilter;
+    private final char annotation;
+    private final int loadThreads;
+    private final List<SourceReport> reports = new ArrayList<>();
+    private final ProbeMetrics metrics = new ProbeMetrics();
+    private ProbeReporter.Mode reportMode = ProbeReporter.Mode.HUMAN;
+    private int distinctEntries = 0;
+
+    /**
+     * @param sources 按优先级排列的来源, 重复的条目保留在第一个来源中
+     * @param dir 合并文件所在路径
+     * @param fileName 合并文件名称, 已存在时覆盖
+     * @param filter 过滤地址的列表, 被过滤的地址保留但不检查
+     * @param domainFilter 域名过滤规则, 可以为 null
+     * @param annotation 注释符号
+     */
+    public HostMerger(List<Source> sources, String dir, String fileName, AddressFilter filter, DomainFilter domainFilter, char annotation) {
+        this(sources, dir, fileName, filter, domainFilter, annotation, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param sources 按优先级排列的来源, 重复的条目保留在第一个来源中
+     * @param dir 合并文件所在路径
+     * @param fileName 合并文件名称, 已存在时覆盖
+     * @param filter 过滤地址的列表, 被过滤的地址保留但不检查
+     * @param domainFilter 域名过滤规则, 可以为 null
+     * @param annotation 注释符号
+     * @param loadThreads 同时加载的来源数量上限
+     */
+    public HostMerger(List<Source> sources, String dir, String fileName, AddressFilter filter, DomainFilter domainFilter, char annotation, int loadThreads) {
+        if (sources == null || sources.isEmpty()) throw new IllegalArgumentException("sources must not be empty");
+        if (loadThreads < 1) throw new IllegalArgumentException("loadThreads must be positive");
+        this.sources = new ArrayList<>(sources);
+        this.dir = dir;
+        this.fileName = fileName;
+        this.filter = filter;
+        this.domainFilter = domainFilter;
+        this.annotation = annotation;
+        this.loadThreads = Math.min(loadThreads, sources.size());
+    }
+
+    /**
+     * 设置探测结果的输出格式, 每个地址只输出第一次出现的行
+     * @param reportMode 输出格式
+     */
+    public void setReportMode(ProbeReporter.Mode reportMode) {
+        this.reportMode = reportMode;
+    }
+
+    /**
+     * 合并所有来源, 检查后写入合并文件
+     * @param engine 探测引擎
+     * @param timeout 超时时间
+     * @param budget 总时间预算, 为 null 时检查所有地址
+     * @throws IOException 无法读取来源或写入合并文件
+     * @throws InterruptedException
+     */
+    public void merge(ProbeEngine engine, int timeout, ProbeBudget budget) throws IOException, InterruptedException {
+        Path target = Paths.get(dir, fileName);
+        Path temp = Paths.get(dir, fileName + ".merging");
+        try {
+            // 每个临时文件行写入的条目数和地址的编号, 索引为行号, 来源的标题行为 0 和 -1
+            IntList lineEntries = new IntList();
+            IntList lineAddresses = new IntList();
+            lineEntries.add(0);
+            lineAddresses.add(-1);
+            long mergeStart = System.nanoTime();
+            BitSet failed;
+            try (MergeProbe probe = new MergeProbe(engine, timeout, budget)) {
+                writeMerged(temp, lineEntries, lineAddresses, probe);
+                metrics.recordPhase(ProbeMetrics.Phase.LOAD, System.nanoTime() - mergeStart);
+                System.out.println(
+                        "merge "
+                                + sources.size()
+                                + " sources into "
+                                + distinctEntries
+                                + " distinct entries in "
+                                + (System.nanoTime() - mergeStart) / 1_000_000
+                                + "ms\n"
+                );
+                failed = probe.finish(lineAddresses);
+            }
+            metrics.recordPhase(ProbeMetrics.Phase.PROBE, System.nanoTime() - mergeStart);
+
+            for (int line = 1; line < lineAddresses.size(); line++) {
+                int address = lineAddresses.get(line);
+                if (address >= 0 && failed.get(address)) reports.get(sourceOfLine(line)).removed += lineEntries.get(line);
+            }
+            long saveStart = System.nanoTime();
+            writeChecked(temp, target, lineAddresses, failed);
+            metrics.recordPhase(ProbeMetrics.Phase.SAVE, System.nanoTime() - saveStart);
+            System.out.println("\nmerged file is \"" + target.toAbsolutePath() + "\"");
+            printReport();
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * 按顺序合并所有来源并写入临时文件, 最多 loadThreads 个来源同时加载
+     */
+    private void writeMerged(Path temp, IntList lineEntries, IntList lineAddresses, MergeProbe probe) throws IOException, InterruptedException {
+        // key: 小写的 "地址 域名" 的哈希, value: 第一次出现的来源
+        LongIntMap seen = new LongIntMap();
+        byte[] annotationBytes = String.valueOf(annotation).getBytes(StandardCharsets.UTF_8);
+        byte[] separator = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+        ExecutorService pool = Executors.newFixedThreadPool(loadThreads, r -> {
+            Thread thread = new Thread(r, "host-merge-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Deque<Future<LoadedSource>> loading = new ArrayDeque<>();
+        int next = 0;
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+            while (next < sources.size() && loading.size() < loadThreads) {
+                loading.add(pool.submit(loader(sources.get(next++), annotationBytes)));
+            }
+            for (int index = 0; index < sources.size(); index++) {
+                LoadedSource loaded;
+                try {
+                    loaded = loading.poll().get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) throw (IOException) cause;
+                    throw new RuntimeException(cause);
+                }
+                // 合并当前来源时加载下一个来源, 合并后当前来源的内容可以被回收
+                if (next < sources.size()) loading.add(pool.submit(loader(sources.get(next++), annotationBytes)));
+
+                SourceReport report = new SourceReport(loaded.source.getName(), loaded.lines.size(), lineEntries.size());
+                reports.add(report);
+                out.write((annotation + " source: " + loaded.source.getName()).getBytes(StandardCharsets.UTF_8));
+                out.write(separator);
+                lineEntries.add(0);
+                lineAddresses.add(-1);
+                mergeSource(loaded, index, seen, report, out, separator, annotationBytes, lineEntries, lineAddresses, probe);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        distinctEntries = seen.size();
+    }
+
+    private static Callable<LoadedSource> loader(Source source, byte[] annotationBytes) {
+        return () -> {
+            byte[] data = source.read();
+            int from = hasUtf8Bom(data) ? 3 : 0;
+            LineStore lines = new LineStore(data, from, data.length);
+            IntList packOffsets = new IntList();
+            int[] offsets = new int[HostLineParser.FIELDS];
+            for (int i = 0; i < lines.size(); i++) {
+                if (!HostLineParser.parse(data, lines.start(i), lines.end(i), annotationBytes, offsets, 0)) continue;
+                for (int offset : offsets) {
+                    packOffsets.add(offset);
+                }
+            }
+            return new LoadedSource(source, lines, packOffsets);
+        };
+    }
+
+    /**
+     * 写入一个来源中没有出现过的条目, 每个有效行写为 "地址 新的域名...", 需要检查的行的地址交给 probe
+     */
+    private void mergeSource(LoadedSource loaded, int index, LongIntMap seen, SourceReport report,
+                             OutputStream out, byte[] separator, byte[] annotationBytes,
+                             IntList lineEntries, IntList lineAddresses, MergeProbe probe) throws IOException, InterruptedException {
+        byte[] data = loaded.lines.data();
+        int[] offsets = loaded.packOffsets.array();
+        int[] lineOffsets = new int[HostLineParser.FIELDS];
+        LineBuffer line = new LineBuffer();
+        for (int base = 0; base < loaded.packOffsets.size(); base += HostLineParser.FIELDS) {
+            int addrStart = offsets[base + HostLineParser.ADDR_START];
+            int addrEnd = offsets[base + HostLineParser.ADDR_END];
+            int domainsEnd = offsets[base + HostLineParser.DOMAINS_END];
+            long addrHash = lowerCaseHash(FNV_OFFSET, data, addrStart, addrEnd);
+            int written = 0;
+            line.reset();
+            int i = offsets[base + HostLineParser.DOMAIN_START];
+            while (i < domainsEnd) {
+                int end = HostLineParser.skipToken(data, i, domainsEnd, NO_ANNOTATION);
+                report.entries++;
+                long key = lowerCaseHash((addrHash ^ ' ') * FNV_PRIME, data, i, end);
+                int first = seen.putIfAbsent(key, index);
+                if (first < 0) {
+                    if (written == 0) {
+                        line.write(data, addrStart, addrEnd - addrStart);
+                    }
+                    line.write(' ');
+                    line.write(data, i, end - i);
+                    written++;
+                } else {
+                    report.duplicates++;
+                    report.duplicatesOf.merge(first, 1, Integer::sum);
+                }
+                i = HostLineParser.skipSeparators(data, end, domainsEnd);
+            }
+            if (written > 0) {
+                int lineIndex = lineEntries.size();
+                HostLineParser.parse(line.array(), 0, line.size(), annotationBytes, lineOffsets, 0);
+                lineAddresses.add(
+                        HostChecker.needCheck(filter, domainFilter, line.array(), lineOffsets, annotationBytes)
+                                ? probe.addressOf(addrHash, line.array(), lineOffsets, lineIndex)
+                                : -1
+                );
+                line.writeTo(out);
+                out.write(separator);
+                lineEntries.add(written);
+                report.written += written;
+            }
+        }
+    }
+
+    /**
+     * 把临时文件逐行复制到合并文件, 跳过地址超时的行
+     */
+    private static void writeChecked(Path temp, Path target, IntList lineAddresses, BitSet failed) throws IOException {
+        AtomicFiles.write(target, channel -> {
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel));
+            try (InputStream in = Files.newInputStream(temp)) {
+                byte[] buffer = new byte[64 * 1024];
+                int line = 1;
+                boolean keep = isKept(line, lineAddresses, failed);
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    int start = 0;
+                    for (int i = 0; i < read; i++) {
+                        if (buffer[i] != '\n') continue;
+                        if (keep) out.write(buffer, start, i + 1 - start);
+                        start = i + 1;
+                        keep = isKept(++line, lineAddresses, failed);
+                    }
+                    if (keep) out.write(buffer, start, read - start);
+                }
+            }
+            // 由 AtomicFiles 关闭文件
+            out.flush();
+        });
+    }
+
+    private static boolean isKept(int line, IntList lineAddresses, BitSet failed) {
+        if (line >= lineAddresses.size()) return true;
+        int address = lineAddresses.get(line);
+        return address < 0 || !failed.get(address);
+    }
+
+    /**
+     * 继续计算 [start, end) 按 ASCII 转为小写后的 64 位 FNV-1a 哈希
+     */
+    private static long lowerCaseHash(long hash, byte[] data, int start, int end) {
+        for (int i = start; i < end; i++) {
+            int b = data[i] & 0xff;
+            if (b >= 'A' && b <= 'Z') b += 'a' - 'A';
+            hash ^= b;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * @param line 临时文件中的行号
+     * @return 该行所属来源的索引
+     */
+    private int sourceOfLine(int line) {
+        int low = 0;
+        int high = reports.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (reports.get(middle).headerLine <= line) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    private static boolean hasUtf8Bom(byte[] data) {
+        return data.length >= 3 && data[0] == (byte) 0xEF && data[1] == (byte) 0xBB && data[2] == (byte) 0xBF;
+    }
+
+    private void printReport() {
+        for (SourceReport report : reports) {
+            System.out.println(
+                    report.name
+                            + ": "
+                            + report.entries
+                            + " entries, "
+                            + report.duplicates
+                            + " duplicate, "
+                            + report.written
+                            + " written, "
+                            + report.removed
+                            + " removed"
+            );
+        }
+    }
+
+    /**
+     * @return 检查合并文件的运行指标, 合并之前为空的指标
+     */
+    public ProbeMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return 每个来源的条目数, 重复数, 写入数和移除数
+     */
+    public String toJson() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("{\"output\":");
+        ProbeReporter.appendJsonString(new File(dir, fileName).getAbsolutePath(), builder);
+        builder.append(",\"distinctEntries\":").append(distinctEntries);
+        builder.append(",\"distinctAddresses\":").append(getMetrics().getProbeAddresses());
+        builder.append(",\"sources\":[");
+        for (int i = 0; i < reports.size(); i++) {
+            SourceReport report = reports.get(i);
+            if (i > 0) builder.append(',');
+            builder.append("{\"source\":");
+            ProbeReporter.appendJsonString(report.name, builder);
+            builder.append(",\"lines\":").append(report.lines)
+                    .append(",\"entries\":").append(report.entries)
+                    .append(",\"duplicates\":").append(report.duplicates)
+                    .append(",\"duplicatesOf\":{");
+            boolean first = true;
+            for (Map.Entry<Integer, Integer> entry : report.duplicatesOf.entrySet()) {
+                if (!first) builder.append(',');
+                first = false;
+                ProbeReporter.appendJsonString(reports.get(entry.getKey()).name, builder);
+                builder.append(':').append(entry.getValue());
+            }
+            builder.append("},\"written\":").append(report.written)
+                    .append(",\"removed\":").append(report.removed)
+                    .append('}');
+        }
+        builder.append("]}");
+        return builder.toString();
+    }
+
+    /**
+     * 将报告以 JSON 格式写入文件
+     * @param path 文件路径
+     * @throws IOException
+     */
+    public void writeReport(Path path) throws IOException {
+        Files.write(path, toJson().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 合并的来源
+     */
+    public static abstract class Source {
+        private final String name;
+
+        private Source(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @param path 文件路径
+         * @param charset 文件编码
+         * @return 文件来源
+         */
+        public static Source file(Path path, Charset charset) {
+            return new Source(path.toString()) {
+                @Override
+                byte[] read() throws IOException {
+                    byte[] data = Files.readAllBytes(path);
+                    if (charset.equals(StandardCharsets.UTF_8)) return data;
+                    try {
+                        // 与 HostChecker 相同, 不替换无法解码的字节
+                        String content = charset.newDecoder()
+                                .onMalformedInput(CodingErrorAction.REPORT)
+                                .onUnmappableCharacter(CodingErrorAction.REPORT)
+                                .decode(ByteBuffer.wrap(data))
+                                .toString();
+                        return content.getBytes(StandardCharsets.UTF_8);
+                    } catch (CharacterCodingException e) {
+                        throw new IOException("Can not decode " + path.toAbsolutePath() + " as " + charset, e);
+                    }
+                }
+            };
+        }
+
+        /**
+         * @param name 来源名称, 用于报告
+         * @param content 内容
+         * @return 字符串来源
+         */
+        public static Source string(String name, String content) {
+            return new Source(name) {
+                @Override
+                byte[] read() {
+                    return content.getBytes(StandardCharsets.UTF_8);
+                }
+            };
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return UTF-8 内容, 可以以 BOM 开头
+         */
+        abstract byte[] read() throws IOException;
+    }
+
+    /**
+     * 合并时探测新出现的地址, 每个地址只探测一次
+     * <p>同时进行的探测受窗口限制, 没有空位时合并等待; 使用时间预算时每个探测的超时时间不超过剩余的预算,
+     * 剩余预算不足时不再开始新的探测, 截止时还没有结果的探测被取消</p>
+     */
+    private class MergeProbe implements AutoCloseable {
+        private final ProbeEngine engine;
+        private final int timeout;
+        private final ProbeBudget budget;
+        private final long deadline;
+        private final int maxOutstanding;
+        private final Semaphore window;
+        // key: 小写地址的哈希, value: 地址的编号
+        private final LongIntMap addresses = new LongIntMap();
+        private final ProbeReporter reporter = new ProbeReporter(reportMode, System.out);
+        private final Set<CompletableFuture<ProbeResult>> running = ConcurrentHashMap.newKeySet();
+        // 超时的地址编号; 记录结果和截止都在 failed 上同步, 截止后不会再被修改
+        private final BitSet failed = new BitSet();
+        // 以下字段在 failed 上同步
+        private final BitSet verified = new BitSet();
+        private boolean finished = false;
+        private int conclusive = 0;
+        private int inconclusive = 0;
+        // 以下字段只在合并线程中访问
+        private boolean stopped = false;
+        private int started = 0;
+
+        MergeProbe(ProbeEngine engine, int timeout, ProbeBudget budget) {
+            this.engine = engine;
+            this.timeout = timeout;
+            this.budget = budget;
+            this.deadline = budget == null ? Long.MAX_VALUE : System.nanoTime() + budget.getBudgetMillis() * 1_000_000L;
+            this.maxOutstanding = budget == null ? MAX_OUTSTANDING : budget.getMaxOutstanding();
+            this.window = new Semaphore(maxOutstanding);
+        }
+
+        /**
+         * @param addrHash 小写地址的哈希
+         * @param data 行内容
+         * @param offsets {@link HostLineParser} 解析出的位置
+         * @param lineIndex 临时文件中的行号
+         * @return 地址的编号, 第一次出现时开始探测
+         */
+        int addressOf(long addrHash, byte[] data, int[] offsets, int lineIndex) throws InterruptedException {
+            int address = addresses.size();
+            int known = addresses.putIfAbsent(addrHash, address);
+            if (known >= 0) return known;
+            if (!stopped) {
+                // 行缓冲会被重复使用, 输出的行需要复制
+                byte[] line = Arrays.copyOf(data, offsets[HostLineParser.DOMAINS_END]);
+                start(address, new HostChecker.ReadPack(line, offsets, 0, lineIndex));
+            }
+            return address;
+        }
+
+        private void start(int address, HostChecker.ReadPack pack) throws InterruptedException {
+            int probeTimeout = timeout;
+            if (budget == null) {
+                window.acquire();
+            } else {
+                long remaining = (deadline - System.nanoTime()) / 1_000_000L;
+                if (remaining < ProbeBudget.MIN_PROBE_TIMEOUT
+                        || !window.tryAcquire(remaining - ProbeBudget.MIN_PROBE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    stopped = true;
+                    return;
+                }
+                // 超时时间在开始时才计算, 随着预算减少而缩短
+                remaining = (deadline - System.nanoTime()) / 1_000_000L;
+                if (remaining < ProbeBudget.MIN_PROBE_TIMEOUT) {
+                    window.release();
+                    stopped = true;
+                    return;
+                }
+                probeTimeout = (int) Math.min(timeout, remaining);
+            }
+            boolean shortened = probeTimeout < timeout;
+            List<HostChecker.ReadPack> packs = Collections.singletonList(pack);
+            long submitted = System.nanoTime();
+            started++;
+            metrics.probeStarted();
+            CompletableFuture<ProbeResult> future = shortened
+                    ? engine.probeShortened(pack.getAddr(), probeTimeout)
+                    : engine.probe(pack.getAddr(), probeTimeout);
+            running.add(future);
+            future.whenComplete((result, e) -> {
+                running.remove(future);
+                metrics.probeCompleted(HostChecker.outcomeOf(result, e), System.nanoTime() - submitted);
+                try {
+                    synchronized (failed) {
+                        // 截止后的结果 (包括被取消的探测) 不再使用
+                        if (finished) return;
+                        if (e == null && !result.isReachable() && shortened) {
+                            inconclusive++;
+                        } else if (e == null) {
+                            // 探测出错时无法判断地址是否有效, 保留该地址的行
+                            if (!result.isReachable()) failed.set(address);
+                            verified.set(address);
+                            conclusive++;
+                        }
+                        reporter.report(packs, result, e);
+                    }
+                } finally {
+                    window.release();
+                }
+            });
+        }
+
+        /**
+         * 等待已开始的探测, 使用时间预算时最多到截止时间
+         * @param lineAddresses 每行的地址编号, 不需要检查的行为 -1
+         * @return 超时的地址编号
+         */
+        BitSet finish(IntList lineAddresses) throws InterruptedException {
+            int lineCount = 0;
+            for (int line = 1; line < lineAddresses.size(); line++) {
+                if (lineAddresses.get(line) >= 0) lineCount++;
+            }
+            HostChecker.printProbeMessage(lineCount, addresses.size());
+            metrics.probeScheduled(lineCount, addresses.size());
+            if (budget == null) {
+                window.acquire(maxOutstanding);
+            } else {
+                long remaining = Math.max(0, (deadline - System.nanoTime()) / 1_000_000L);
+                window.tryAcquire(maxOutstanding, remaining, TimeUnit.MILLISECONDS);
+            }
+            int conclusiveAddresses;
+            int inconclusiveAddresses;
+            synchronized (failed) {
+                finished = true;
+                conclusiveAddresses = conclusive;
+                inconclusiveAddresses = inconclusive;
+            }
+            cancelRunning();
+            if (budget != null) {
+                int unverifiedLines = 0;
+                for (int line = 1; line < lineAddresses.size(); line++) {
+                    int address = lineAddresses.get(line);
+                    if (address >= 0 && !verified.get(address)) unverifiedLines++;
+                }
+                HostChecker.printBudgetMessage(
+                        budget.getBudgetMillis(),
+                        addresses.size(),
+                        started,
+                        conclusiveAddresses,
+                        inconclusiveAddresses,
+                        unverifiedLines
+                );
+            }
+            return failed;
+        }
+
+        /**
+         * 取消截止时还没有结果的探测, 释放引擎中的位置
+         */
+        private void cancelRunning() {
+            for (CompletableFuture<ProbeResult> future : running) {
+                future.cancel(true);
+            }
+        }
+
+        /**
+         * 合并失败时取消所有探测, 等待已发布的结果输出完成
+         */
+        @Override
+        public void close() {
+            synchronized (failed) {
+                finished = true;
+            }
+            cancelRunning();
+            reporter.close();
+        }
+    }
+
+    /**
+     * 可以重复使用的行缓冲, 可以直接访问内部数组
+     */
+    private static class LineBuffer extends ByteArrayOutputStream {
+        byte[] array() {
+            return buf;
+        }
+    }
+
+    /**
+     * 已加载的来源, 合并后释放
+     */
+    private static class LoadedSource {
+        final Source source;
+        final LineStore lines;
+        // 每个有效行 HostLineParser.FIELDS 个位置
+        final IntList packOffsets;
+
+        LoadedSource(Source source, LineStore lines, IntList packOffsets) {
+            this.source = source;
+            this.lines = lines;
+            this.packOffsets = packOffsets;
+        }
+    }
+
+    /**
+     * 单个来源的统计
+     */
+    private static class SourceReport {
+        final String name;
+        final int lines;
+        // 来源的标题在临时文件中的行号
+        final int headerLine;
+        int entries = 0;
+        int duplicates = 0;
+        int written = 0;
+        int removed = 0;
+        // key: 条目第一次出现的来源, value: 重复数
+        final Map<Integer, Integer> duplicatesOf = new LinkedHashMap<>();
+
+        SourceReport(String name, int lines, int headerLine) {
+            this.name = name;
+            this.lines = lines;
+            this.headerLine = headerLine;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.morlinnn.hostchecker;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 监视 Host 文件, 文件变化时只检查新增或修改的有效行
+ * <p>每次变化后通过 {@link HostChecker#reloadChanged()} 重新加载文件, 与上一次加载的内容相同的前缀不再解析,
+ * 之后的行按内容的哈希与原来的有效行比较, 内容没有变化的行已经检查过, 不再探测。
+ * 只有新增或修改的行中有超时的行时才会保存, 备份只保留一个 xxx.backup。
+ * 保存前文件如果又被修改, 放弃本次保存, 超时的行作为未保存的移除, 由下一次变化重新检查</p>
+ */
+public class HostWatcher implements AutoCloseable {
+    /**
+     * 最后一次变化之后等待的时间 (ms), 编辑器保存时通常会连续产生多个事件
+     */
+    public static final long DEFAULT_DEBOUNCE = 200;
+
+    private final HostChecker checker;
+    private final Path file;
+    private final ProbeEngine engine;
+    private final int timeout;
+    private final long debounce;
+    private final WatchService watchService;
+
+    /**
+     * @param checker 已从文件加载的检查器
+     * @param dir 文件所在路径
+     * @param fileName 文件名称
+     * @param engine 探测引擎
+     * @param timeout 超时时间
+     * @throws IOException 无法监视文件夹
+     */
+    public HostWatcher(HostChecker checker, String dir, String fileName, ProbeEngine engine, int timeout) throws IOException {
+        this(checker, dir, fileName, engine, timeout, DEFAULT_DEBOUNCE);
+    }
+
+    /**
+     * @param checker 已从文件加载的检查器
+     * @param dir 文件所在路径
+     * @param fileName 文件名称
+     * @param engine 探测引擎
+     * @param timeout 超时时间
+     * @param debounce 最后一次变化之后等待的时间 (ms)
+     * @throws IOException 无法监视文件夹
+     */
+    public HostWatcher(HostChecker checker, String dir, String fileName, ProbeEngine engine, int timeout, long debounce) throws IOException {
+        this.checker = checker;
+        // 每次有超时的行都会保存, 只保留一个备份
+        checker.setOverwriteBackup(true);
+        this.file = Paths.get(dir, fileName);
+        this.engine = engine;
+        this.timeout = timeout;
+        this.debounce = debounce;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        Paths.get(dir).register(
+                watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY
+        );
+    }
+
+    /**
+     * 阻塞地监视文件, 直到 {@link #close()}
+     * @throws InterruptedException
+     */
+    public void run() throws InterruptedException {
+        System.out.println("watching " + file.toAbsolutePath());
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = isTargetChanged(key);
+                // 等待连续的事件结束
+                while ((key = watchService.poll(debounce, TimeUnit.MILLISECONDS)) != null) {
+                    changed |= isTargetChanged(key);
+                }
+                if (!changed) continue;
+                try {
+                    check();
+                } catch (IOException | RuntimeException e) {
+                    // 文件可能正在被写入, 等待下一次变化
+                    System.out.println("check failed: " + e);
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // 已关闭
+        }
+    }
+
+    private boolean isTargetChanged(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                    || file.getFileName().equals(event.context())) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    /**
+     * 重新加载文件并检查新增或修改的有效行
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void check() throws IOException, InterruptedException {
+        if (!Files.exists(file)) return;
+        long checkStart = System.currentTimeMillis();
+        Object loadedVersion = version();
+        Set<Integer> changedLines = checker.reloadChanged();
+        if (changedLines.isEmpty()) {
+            System.out.println("no changed lines");
+            return;
+        }
+
+        System.out.println(changedLines.size() + " changed lines");
+        Set<Integer> failed = checker.getPingTimeoutLines(engine, timeout, changedLines);
+        checker.removeFromIndexes(failed);
+        if (!failed.isEmpty()) {
+            if (!loadedVersion.equals(version())) {
+                // 不能覆盖检查期间的修改, 超时的行已不是有效行, 下一次会作为新增的行重新检查
+                System.out.println("file is modified during check, nothing is saved");
+                return;
+            }
+            checker.save();
+        }
+        System.out.println("checked in " + (System.currentTimeMillis() - checkStart) + "ms");
+    }
+
+    /**
+     * @return 文件的修改时间和大小
+     */
+    private Object version() throws IOException {
+        return Arrays.asList(Files.getLastModifiedTime(file), Files.size(file));
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+}
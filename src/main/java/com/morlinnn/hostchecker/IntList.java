@@ -0,0 +1,52 @@
+package com.morlinnn.hostchecker;
+
+import java.util.Arrays;
+
+/**
+ * 基于 int[] 的可增长列表, 避免 {@code List<Integer>} 的装箱
+ */
+final class IntList {
+    private int[] values;
+    private int size = 0;
+
+    IntList() {
+        this(16);
+    }
+
+    IntList(int capacity) {
+        values = new int[Math.max(capacity, 1)];
+    }
+
+    void add(int value) {
+        if (size == values.length) values = Arrays.copyOf(values, size + (size >> 1) + 1);
+        values[size++] = value;
+    }
+
+    int get(int index) {
+        if (index >= size) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        return values[index];
+    }
+
+    void set(int index, int value) {
+        if (index >= size) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        values[index] = value;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * 保留前 newSize 个元素
+     */
+    void truncate(int newSize) {
+        size = newSize;
+    }
+
+    /**
+     * @return 内部数组, 只有前 {@link #size()} 个元素有效
+     */
+    int[] array() {
+        return values;
+    }
+}
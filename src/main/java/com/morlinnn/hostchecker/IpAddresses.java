@@ -0,0 +1,127 @@
+package com.morlinnn.hostchecker;
+
+/**
+ * IPv4/IPv6 字面量的解析, 不会进行 DNS 查询
+ */
+final class IpAddresses {
+    private IpAddresses() {
+    }
+
+    /**
+     * 解析 s 中 [start, end) 的地址, IPv4 映射的 IPv6 地址 (::ffff:a.b.c.d) 按 IPv4 处理
+     * @param s 字符串
+     * @param start 起始位置
+     * @param end 结束位置
+     * @param out 写入地址的字节, 长度至少为 16
+     * @return IPv4 返回 4, IPv6 返回 16, 不是合法的地址返回 -1
+     */
+    static int parse(CharSequence s, int start, int end, byte[] out) {
+        for (int i = start; i < end; i++) {
+            if (s.charAt(i) == ':') {
+                if (parseV6(s, start, end, out) < 0) return -1;
+                if (isV4Mapped(out)) {
+                    System.arraycopy(out, 12, out, 0, 4);
+                    return 4;
+                }
+                return 16;
+            }
+        }
+        return parseV4(s, start, end, out, 0);
+    }
+
+    /**
+     * @return 成功返回 4, 否则返回 -1
+     */
+    private static int parseV4(CharSequence s, int start, int end, byte[] out, int pos) {
+        int part = 0;
+        int i = start;
+        while (true) {
+            int value = 0;
+            int digits = 0;
+            while (i < end) {
+                char c = s.charAt(i);
+                if (c < '0' || c > '9') break;
+                value = value * 10 + (c - '0');
+                if (++digits > 3 || value > 255) return -1;
+                i++;
+            }
+            if (digits == 0) return -1;
+            out[pos + part] = (byte) value;
+            part++;
+            if (part == 4) return i == end ? 4 : -1;
+            if (i == end || s.charAt(i) != '.') return -1;
+            i++;
+        }
+    }
+
+    /**
+     * @return 成功返回 16, 否则返回 -1
+     */
+    private static int parseV6(CharSequence s, int start, int end, byte[] out) {
+        // 忽略 zone id, 例如 fe80::1%eth0
+        for (int i = start; i < end; i++) {
+            if (s.charAt(i) == '%') {
+                end = i;
+                break;
+            }
+        }
+        int pos = 0;
+        int doubleColon = -1;
+        int i = start;
+        if (end - start >= 2 && s.charAt(start) == ':') {
+            if (s.charAt(start + 1) != ':') return -1;
+            doubleColon = 0;
+            i += 2;
+        }
+        while (i < end) {
+            if (pos == 16) return -1;
+            int tokenStart = i;
+            int value = 0;
+            int digits = 0;
+            while (i < end) {
+                int d = Character.digit(s.charAt(i), 16);
+                if (d < 0) break;
+                value = (value << 4) | d;
+                if (++digits > 4) return -1;
+                i++;
+            }
+            if (i < end && s.charAt(i) == '.') {
+                // 结尾的 IPv4 部分, 例如 ::ffff:1.2.3.4
+                if (pos > 12 || parseV4(s, tokenStart, end, out, pos) < 0) return -1;
+                pos += 4;
+                break;
+            }
+            if (digits == 0) return -1;
+            out[pos++] = (byte) (value >> 8);
+            out[pos++] = (byte) value;
+            if (i == end) break;
+            if (s.charAt(i) != ':') return -1;
+            i++;
+            if (i < end && s.charAt(i) == ':') {
+                if (doubleColon >= 0) return -1;
+                doubleColon = pos;
+                i++;
+            } else if (i == end) {
+                return -1;
+            }
+        }
+        if (doubleColon >= 0) {
+            if (pos == 16) return -1;
+            int tail = pos - doubleColon;
+            System.arraycopy(out, doubleColon, out, 16 - tail, tail);
+            for (int j = doubleColon; j < 16 - tail; j++) {
+                out[j] = 0;
+            }
+        } else if (pos != 16) {
+            return -1;
+        }
+        return 16;
+    }
+
+    private static boolean isV4Mapped(byte[] address) {
+        for (int i = 0; i < 10; i++) {
+            if (address[i] != 0) return false;
+        }
+        return address[10] == (byte) 0xff && address[11] == (byte) 0xff;
+    }
+}
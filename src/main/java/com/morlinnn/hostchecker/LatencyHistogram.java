@@ -0,0 +1,118 @@
+package com.morlinnn.hostchecker;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 无锁的延迟直方图, 可以被多个线程同时记录
+ * <p>以微秒为单位记录, 每个 2 的幂区间分为 8 个桶, 相对误差不超过 12.5%</p>
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    // 最大约 2^42 微秒 (50 天), 更大的值记入最后一个桶
+    private static final int BUCKETS = (42 - SUB_BITS + 1) * SUB_BUCKETS + SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * 记录一个延迟
+     * @param micros 延迟 (微秒), 小于 0 按 0 记录
+     */
+    public void record(long micros) {
+        if (micros < 0) micros = 0;
+        counts.incrementAndGet(Math.min(bucket(micros), BUCKETS - 1));
+        count.incrementAndGet();
+        sum.addAndGet(micros);
+        long current;
+        while (micros > (current = max.get()) && !max.compareAndSet(current, micros)) {
+            // 重试直到写入更大的值
+        }
+    }
+
+    private static int bucket(long micros) {
+        if (micros < SUB_BUCKETS) return (int) micros;
+        int exp = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exp - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int exp = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exp - SUB_BITS);
+    }
+
+    /**
+     * @return 记录的数量
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return 平均延迟 (ms), 没有记录时为 0
+     */
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : sum.get() / 1000.0 / n;
+    }
+
+    /**
+     * @return 最大延迟 (ms)
+     */
+    public double getMax() {
+        return max.get() / 1000.0;
+    }
+
+    /**
+     * @param percentile 百分位, 范围 [0, 100]
+     * @return 该百分位所在桶的上界 (ms), 不超过最大延迟, 没有记录时为 0
+     */
+    public double getPercentile(double percentile) {
+        long n = count.get();
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(n * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                long upper = i == BUCKETS - 1 ? Long.MAX_VALUE : lowerBound(i + 1) - 1;
+                return Math.min(upper, max.get()) / 1000.0;
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * @return JSON 对象, 包含数量, 平均值, 常用百分位, 最大值和所有非空桶 [上界 (ms), 数量]
+     */
+    public String toJson() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("{\"count\":").append(getCount())
+                .append(",\"mean\":").append(format(getMean()))
+                .append(",\"p50\":").append(format(getPercentile(50)))
+                .append(",\"p90\":").append(format(getPercentile(90)))
+                .append(",\"p99\":").append(format(getPercentile(99)))
+                .append(",\"max\":").append(format(getMax()))
+                .append(",\"buckets\":[");
+        boolean first = true;
+        for (int i = 0; i < BUCKETS; i++) {
+            long bucketCount = counts.get(i);
+            if (bucketCount == 0) continue;
+            if (!first) builder.append(',');
+            first = false;
+            long upper = i == BUCKETS - 1 ? max.get() : Math.min(lowerBound(i + 1) - 1, max.get());
+            builder.append('[').append(format(upper / 1000.0)).append(',').append(bucketCount).append(']');
+        }
+        return builder.append("]}").toString();
+    }
+
+    static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+}
@@ -0,0 +1,151 @@
+package com.morlinnn.hostchecker;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 所有行的紧凑存储, 内容保存在一个 UTF-8 字节数组中, 每行只记录起止位置
+ * <p>使用 "\r\n", "\n", "\r" 分隔行, 行的起止位置不包括换行符, 结尾的换行符不会产生空行</p>
+ */
+final class LineStore {
+    private final byte[] data;
+    private int[] starts;
+    private int[] ends;
+    private int size = 0;
+
+    /**
+     * @param data 内容
+     * @param from 起始位置
+     * @param to 结束位置
+     */
+    LineStore(byte[] data, int from, int to) {
+        this.data = data;
+        int capacity = Math.max(16, (to - from) / 32);
+        this.starts = new int[capacity];
+        this.ends = new int[capacity];
+        split(from, to);
+    }
+
+    private LineStore(byte[] data, int[] starts, int[] ends, int size) {
+        this.data = data;
+        this.starts = starts;
+        this.ends = ends;
+        this.size = size;
+    }
+
+    /**
+     * 按顺序连接共用同一字节数组的多个部分
+     * @param data 所有部分共用的内容
+     * @param parts 按位置排列的部分
+     * @return 包含所有部分的行
+     */
+    static LineStore concat(byte[] data, List<LineStore> parts) {
+        int size = 0;
+        for (LineStore part : parts) {
+            size += part.size;
+        }
+        int[] starts = new int[Math.max(16, size)];
+        int[] ends = new int[Math.max(16, size)];
+        int position = 0;
+        for (LineStore part : parts) {
+            System.arraycopy(part.starts, 0, starts, position, part.size);
+            System.arraycopy(part.ends, 0, ends, position, part.size);
+            position += part.size;
+        }
+        return new LineStore(data, starts, ends, size);
+    }
+
+    /**
+     * 使用已经分好的前若干行, 只对之后的部分分行
+     * @param data 内容
+     * @param starts 已有行的起始位置
+     * @param ends 已有行的结束位置
+     * @param size 已有行的数量
+     * @param from 之后部分的起始位置, 是一行的开头
+     * @param to 结束位置
+     * @return 包含已有行和之后部分的行
+     */
+    static LineStore resume(byte[] data, int[] starts, int[] ends, int size, int from, int to) {
+        int capacity = Math.max(16, size + (to - from) / 32);
+        LineStore store = new LineStore(data, Arrays.copyOf(starts, capacity), Arrays.copyOf(ends, capacity), size);
+        store.split(from, to);
+        return store;
+    }
+
+    private void split(int from, int to) {
+        int lineStart = from;
+        int i = from;
+        while (i < to) {
+            byte b = data[i];
+            if (b == '\n' || b == '\r') {
+                add(lineStart, i);
+                if (b == '\r' && i + 1 < to && data[i + 1] == '\n') i++;
+                lineStart = ++i;
+            } else {
+                i++;
+            }
+        }
+        if (lineStart < to) add(lineStart, to);
+    }
+
+    private void add(int start, int end) {
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, size + (size >> 1));
+            ends = Arrays.copyOf(ends, size + (size >> 1));
+        }
+        starts[size] = start;
+        ends[size] = end;
+        size++;
+    }
+
+    /**
+     * @return 行数
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return 所有行共用的字节数组
+     */
+    byte[] data() {
+        return data;
+    }
+
+    /**
+     * @param index 行的索引, 从 0 开始
+     * @return 行在 {@link #data()} 中的起始位置
+     */
+    int start(int index) {
+        return starts[index];
+    }
+
+    /**
+     * @param index 行的索引, 从 0 开始
+     * @return 行在 {@link #data()} 中的结束位置, 不包括换行符
+     */
+    int end(int index) {
+        return ends[index];
+    }
+
+    /**
+     * @param index 行的索引, 从 0 开始
+     * @return 行内容
+     */
+    String get(int index) {
+        return new String(data, starts[index], ends[index] - starts[index], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 将行的原始字节写入输出流, 不包括换行符
+     * @param index 行的索引, 从 0 开始
+     * @param out 输出流
+     * @throws IOException
+     */
+    void write(int index, OutputStream out) throws IOException {
+        out.write(data, starts[index], ends[index] - starts[index]);
+    }
+}
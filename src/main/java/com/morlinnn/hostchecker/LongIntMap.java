@@ -0,0 +1,73 @@
+package com.morlinnn.hostchecker;
+
+import java.util.Arrays;
+
+/**
+ * long 到非负 int 的开放寻址哈希表, 每个条目只占用 12 字节, 避免 {@code Map<String, Integer>} 的对象开销
+ */
+final class LongIntMap {
+    private static final int EMPTY = -1;
+
+    private long[] keys;
+    private int[] values;
+    private int size = 0;
+
+    LongIntMap() {
+        this(16);
+    }
+
+    LongIntMap(int capacity) {
+        int length = Integer.highestOneBit(Math.max(capacity, 8) * 2 - 1);
+        keys = new long[length];
+        values = new int[length];
+        Arrays.fill(values, EMPTY);
+    }
+
+    /**
+     * @param key 键
+     * @param value 值, 必须为非负数
+     * @return 已存在的值, 不存在时放入 value 并返回 -1
+     */
+    int putIfAbsent(long key, int value) {
+        if (value < 0) throw new IllegalArgumentException("value must not be negative");
+        int slot = slotOf(key, keys.length);
+        while (values[slot] != EMPTY) {
+            if (keys[slot] == key) return values[slot];
+            slot = (slot + 1) & (keys.length - 1);
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        // 负载不超过 0.75
+        if (++size > keys.length - (keys.length >> 2)) grow();
+        return EMPTY;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        Arrays.fill(values, EMPTY);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] == EMPTY) continue;
+            int slot = slotOf(oldKeys[i], keys.length);
+            while (values[slot] != EMPTY) {
+                slot = (slot + 1) & (keys.length - 1);
+            }
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    /**
+     * FNV 哈希的低位分布较差, 先混合高位
+     */
+    private static int slotOf(long key, int length) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed >>> 32) & (length - 1);
+    }
+}
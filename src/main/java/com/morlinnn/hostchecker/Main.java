@@ -1,7 +1,15 @@
 package com.morlinnn.hostchecker;
 
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Set;
 
 public class Main {
@@ -12,10 +20,38 @@ public class Main {
                     + "dir fileName\n"
                     + "-string 加载字符串\n"
                     + "-annotation 注释字符\n"
+                    + "-charset 文件编码(默认为UTF-8)\n"
                     + "-threadNum ping线程数量\n"
-                    + "-timeout 超时时间(ms)\n"
-                    + "-filter 过滤地址\n"
-                    + "-regexp 过滤正则表达式"
+                    + "-timeout 超时时间(ms), 0 表示不限制\n"
+                    + "-filter 过滤地址, 支持 CIDR 地址段(例如 10.0.0.0/8 ::1/128)\n"
+                    + "-regexp 过滤正则表达式\n"
+                    + "-excludeDomains 域名排除规则文件, 匹配的行不检查\n"
+                    + "-includeDomains 域名包含规则文件, 匹配的行总是检查\n"
+                    + "-engine 探测引擎 thread(默认)/nio/virtual(JDK 21+, TCP connect)/hedged(先 ping, 再 TCP connect)\n"
+                    + "-ports nio/virtual/hedged 引擎探测的端口(默认为80 443)\n"
+                    + "-hedgeDelay hedged 引擎开始下一个策略前等待的时间(ms)(默认为200)\n"
+                    + "-maxInFlight nio/virtual 引擎同时探测的地址数量(默认为1000)\n"
+                    + "-cache 探测结果缓存文件\n"
+                    + "-cacheTtl 可达结果和超时结果的缓存有效期(ms)(默认为86400000 3600000)\n"
+                    + "-cacheSize 缓存条目上限(默认为100000)\n"
+                    + "-cacheBypass 不使用缓存的结果, 但更新缓存\n"
+                    + "-cachePurge 运行前清空缓存\n"
+                    + "-noBackup 保存时不保留原文件\n"
+                    + "-journal 探测结果日志文件, 进程被终止后可以继续检查\n"
+                    + "-resume 重放 -journal 的日志, 只检查还没有结果的行\n"
+                    + "-daemon 检查后常驻, 每个地址按此间隔(ms)重新检查\n"
+                    + "-daemonPort 常驻时 127.0.0.1 上 HTTP 接口的端口(默认为8423)\n"
+                    + "-metrics 运行结束后将指标以 JSON 格式写入文件\n"
+                    + "-output 探测结果的输出格式 human(默认)/json/quiet\n"
+                    + "-adaptive 自适应并发数的下限和上限, 根据超时率自动调整\n"
+                    + "-budget 探测的总时间(ms), 优先探测最久没有检查的地址, 截止时未确定的行被保留\n"
+                    + "-watch 检查后继续监视文件, 文件变化时只检查新增或修改的行\n"
+                    + "-merge 合并多个 Host 文件, 去重后检查并写入 dir fileName\n"
+                    + "-mergeString 合并的字符串来源\n"
+                    + "-mergeReport 合并报告(JSON)的文件路径\n"
+                    + "-shard 分片数量和清单文件夹, 将有效行按地址分为多个清单\n"
+                    + "-worker 检查 dir fileName 指定的清单, 结果写入同一文件夹\n"
+                    + "-mergeShards 合并此文件夹中所有分片的结果, 移除超时的行并保存"
             );
             return;
         }
@@ -28,8 +64,42 @@ public class Main {
         char annotation = '#';
         Set<String> addressFilter = new HashSet<>();
         Set<String> regexpFilter = new HashSet<>();
+        String engineName = "thread";
+        List<Integer> ports = new ArrayList<>();
+        int maxInFlight = NioProbeEngine.DEFAULT_MAX_IN_FLIGHT;
+        String cacheFile = null;
+        List<Long> cacheTtl = new ArrayList<>();
+        int cacheSize = ProbeCache.DEFAULT_MAX_SIZE;
+        boolean cacheBypass = false;
+        boolean cachePurge = false;
+        Charset charset = StandardCharsets.UTF_8;
+        List<Path> excludeDomains = new ArrayList<>();
+        List<Path> includeDomains = new ArrayList<>();
+        String metricsFile = null;
+        ProbeReporter.Mode outputMode = ProbeReporter.Mode.HUMAN;
+        List<Integer> adaptiveLimits = new ArrayList<>();
+        long hedgeDelay = HedgedProbeEngine.DEFAULT_HEDGE_DELAY;
+        long budgetMillis = 0;
+        boolean watch = false;
+        boolean backup = true;
+        String journalFile = null;
+        boolean resume = false;
+        long daemonInterval = 0;
+        int daemonPort = HostDaemon.DEFAULT_PORT;
+        // 按参数的顺序记录合并来源 {"file" 或 "string", 值}, 参数解析完成后再创建, 使用最终的 charset
+        List<String[]> mergeArgs = new ArrayList<>();
+        String mergeReport = null;
+        List<String> shardArgs = new ArrayList<>();
+        String mergeShardsDir = null;
+        boolean worker = false;
         AddressFilter filter;
+        DomainFilter domainFilter = null;
         // 0: 无状态, 1: -annotation 2: -filter 3: -regexp 4: string 5: threadNum 6: timeout
+        // 7: engine 8: ports 9: maxInFlight 10: cache 11: cacheTtl 12: cacheSize 13: charset
+        // 14: excludeDomains 15: includeDomains 16: metrics
+        // 17: output 18: adaptive 19: hedgeDelay 20: budget
+        // 21: merge 22: mergeString 23: mergeReport 24: journal 25: daemon 26: daemonPort
+        // 27: shard 28: mergeShards
         int status = 0;
         for (int i = 2; i < args.length; i++) {
             if (i == 2 && args[2].equals("-string")) {
@@ -56,6 +126,124 @@ public class Main {
                 status = 6;
                 continue;
             }
+            if (args[i].equals("-engine")) {
+                status = 7;
+                continue;
+            }
+            if (args[i].equals("-ports")) {
+                status = 8;
+                continue;
+            }
+            if (args[i].equals("-maxInFlight")) {
+                status = 9;
+                continue;
+            }
+            if (args[i].equals("-cache")) {
+                status = 10;
+                continue;
+            }
+            if (args[i].equals("-cacheTtl")) {
+                status = 11;
+                continue;
+            }
+            if (args[i].equals("-cacheSize")) {
+                status = 12;
+                continue;
+            }
+            if (args[i].equals("-charset")) {
+                status = 13;
+                continue;
+            }
+            if (args[i].equals("-excludeDomains")) {
+                status = 14;
+                continue;
+            }
+            if (args[i].equals("-includeDomains")) {
+                status = 15;
+                continue;
+            }
+            if (args[i].equals("-metrics")) {
+                status = 16;
+                continue;
+            }
+            if (args[i].equals("-output")) {
+                status = 17;
+                continue;
+            }
+            if (args[i].equals("-adaptive")) {
+                status = 18;
+                continue;
+            }
+            if (args[i].equals("-hedgeDelay")) {
+                status = 19;
+                continue;
+            }
+            if (args[i].equals("-budget")) {
+                status = 20;
+                continue;
+            }
+            if (args[i].equals("-merge")) {
+                status = 21;
+                continue;
+            }
+            if (args[i].equals("-mergeString")) {
+                status = 22;
+                continue;
+            }
+            if (args[i].equals("-mergeReport")) {
+                status = 23;
+                continue;
+            }
+            if (args[i].equals("-journal")) {
+                status = 24;
+                continue;
+            }
+            if (args[i].equals("-daemon")) {
+                status = 25;
+                continue;
+            }
+            if (args[i].equals("-daemonPort")) {
+                status = 26;
+                continue;
+            }
+            if (args[i].equals("-shard")) {
+                status = 27;
+                continue;
+            }
+            if (args[i].equals("-mergeShards")) {
+                status = 28;
+                continue;
+            }
+            if (args[i].equals("-worker")) {
+                worker = true;
+                status = 0;
+                continue;
+            }
+            if (args[i].equals("-resume")) {
+                resume = true;
+                status = 0;
+                continue;
+            }
+            if (args[i].equals("-cacheBypass")) {
+                cacheBypass = true;
+                status = 0;
+                continue;
+            }
+            if (args[i].equals("-watch")) {
+                watch = true;
+                status = 0;
+                continue;
+            }
+            if (args[i].equals("-noBackup")) {
+                backup = false;
+                status = 0;
+                continue;
+            }
+            if (args[i].equals("-cachePurge")) {
+                cachePurge = true;
+                status = 0;
+                continue;
+            }
             if (status == 4) {
                 string = args[i];
                 status = 0;
@@ -80,29 +268,261 @@ public class Main {
             if (status == 6) {
                 timeout = Integer.parseInt(args[i]);
             }
+            if (status == 7) {
+                engineName = args[i];
+            }
+            if (status == 8) {
+                ports.add(Integer.parseInt(args[i]));
+            }
+            if (status == 9) {
+                maxInFlight = Integer.parseInt(args[i]);
+            }
+            if (status == 10) {
+                cacheFile = args[i];
+            }
+            if (status == 11) {
+                cacheTtl.add(Long.parseLong(args[i]));
+            }
+            if (status == 12) {
+                cacheSize = Integer.parseInt(args[i]);
+            }
+            if (status == 13) {
+                charset = Charset.forName(args[i]);
+            }
+            if (status == 14) {
+                excludeDomains.add(Paths.get(args[i]));
+            }
+            if (status == 15) {
+                includeDomains.add(Paths.get(args[i]));
+            }
+            if (status == 16) {
+                metricsFile = args[i];
+            }
+            if (status == 17) {
+                outputMode = ProbeReporter.Mode.valueOf(args[i].toUpperCase(Locale.ROOT));
+            }
+            if (status == 18) {
+                adaptiveLimits.add(Integer.parseInt(args[i]));
+            }
+            if (status == 19) {
+                hedgeDelay = Long.parseLong(args[i]);
+            }
+            if (status == 20) {
+                budgetMillis = Long.parseLong(args[i]);
+            }
+            if (status == 21) {
+                mergeArgs.add(new String[]{"file", args[i]});
+            }
+            if (status == 22) {
+                mergeArgs.add(new String[]{"string", args[i]});
+            }
+            if (status == 23) {
+                mergeReport = args[i];
+            }
+            if (status == 24) {
+                journalFile = args[i];
+            }
+            if (status == 25) {
+                daemonInterval = Long.parseLong(args[i]);
+            }
+            if (status == 26) {
+                daemonPort = Integer.parseInt(args[i]);
+            }
+            if (status == 27) {
+                shardArgs.add(args[i]);
+            }
+            if (status == 28) {
+                mergeShardsDir = args[i];
+            }
+        }
+        if (timeout < 0) {
+            System.out.println("timeout 不能为负数, 0 表示不限制");
+            return;
+        }
+        List<HostMerger.Source> mergeSources = new ArrayList<>();
+        for (String[] mergeArg : mergeArgs) {
+            if (mergeArg[0].equals("file")) {
+                mergeSources.add(HostMerger.Source.file(Paths.get(mergeArg[1]), charset));
+            } else {
+                mergeSources.add(HostMerger.Source.string("string " + (mergeSources.size() + 1), mergeArg[1]));
+            }
         }
         if (addressFilter.isEmpty() && regexpFilter.isEmpty()) {
             filter = AddressFilter.getLoopbackFilter();
         } else {
             filter = new AddressFilter(addressFilter, regexpFilter);
         }
-        HostChecker checker;
-        if (string == null) {
+        if (!excludeDomains.isEmpty() || !includeDomains.isEmpty()) {
+            domainFilter = DomainFilter.fromFiles(excludeDomains, includeDomains);
+        }
+        HostChecker checker = null;
+        HostMerger merger = null;
+        if (worker) {
+            // 清单不是 Host 文件, 不加载
+        } else if (!mergeSources.isEmpty()) {
+            merger = new HostMerger(mergeSources, dir, file, filter, domainFilter, annotation);
+            merger.setReportMode(outputMode);
+        } else if (string == null) {
             checker = new HostChecker(
                     dir,
                     file,
                     filter,
-                    annotation
+                    domainFilter,
+                    annotation,
+                    charset
             );
         } else {
             checker = new HostChecker(
+                    string,
                     dir,
                     file,
-                    string,
                     filter,
+                    domainFilter,
                     annotation
             );
         }
-        checker.pingAndResolve(threadNum, timeout);
+        if (checker != null) {
+            checker.setReportMode(outputMode);
+            checker.setBackup(backup);
+        }
+        if (checker != null && shardArgs.size() == 2) {
+            ShardedCheck.split(checker, Paths.get(shardArgs.get(1)), Integer.parseInt(shardArgs.get(0)));
+            return;
+        } else if (!shardArgs.isEmpty()) {
+            System.out.println("shard 需要分片数量和清单文件夹, 且不能与 merge 一起使用");
+            return;
+        }
+        if (checker != null && mergeShardsDir != null) {
+            ShardedCheck.merge(checker, Paths.get(mergeShardsDir));
+            return;
+        }
+        if (adaptiveLimits.size() == 1) adaptiveLimits.add(adaptiveLimits.get(0));
+        if (!adaptiveLimits.isEmpty()) {
+            // 内部引擎的并发上限不能限制自适应的上限
+            threadNum = adaptiveLimits.get(1);
+            maxInFlight = Math.max(maxInFlight, adaptiveLimits.get(1));
+        }
+        int[] portArray = ports.isEmpty()
+                ? NioProbeEngine.DEFAULT_PORTS
+                : ports.stream().mapToInt(Integer::intValue).toArray();
+        ProbeEngine engine;
+        HedgedProbeEngine hedged = null;
+        if (engineName.equals("nio")) {
+            engine = new NioProbeEngine(portArray, maxInFlight);
+        } else if (engineName.equals("hedged")) {
+            hedged = new HedgedProbeEngine(
+                    Arrays.asList(new ThreadPoolProbeEngine(threadNum), new NioProbeEngine(portArray, maxInFlight)),
+                    hedgeDelay
+            );
+            engine = hedged;
+        } else if (engineName.equals("virtual")) {
+            if (!VirtualThreadProbeEngine.isSupported()) {
+                System.out.println("virtual 需要 JDK 21 及以上, 使用 thread");
+                engine = new ThreadPoolProbeEngine(threadNum);
+            } else {
+                engine = new VirtualThreadProbeEngine(maxInFlight, portArray);
+            }
+        } else if (engineName.equals("thread")) {
+            engine = new ThreadPoolProbeEngine(threadNum);
+        } else {
+            System.out.println("engine 只能是 thread, nio, virtual 或 hedged");
+            return;
+        }
+        AdaptiveProbeEngine adaptive = null;
+        if (!adaptiveLimits.isEmpty()) {
+            adaptive = new AdaptiveProbeEngine(engine, adaptiveLimits.get(0), adaptiveLimits.get(1));
+            engine = adaptive;
+        }
+        // 不读取缓存的引擎, 用于需要真正重新检查的 daemon
+        ProbeEngine uncached = engine;
+        ProbeCache cache = null;
+        if (cacheFile != null) {
+            cache = new ProbeCache(
+                    Paths.get(cacheFile),
+                    cacheTtl.size() > 0 ? cacheTtl.get(0) : ProbeCache.DEFAULT_POSITIVE_TTL,
+                    cacheTtl.size() > 1 ? cacheTtl.get(1) : ProbeCache.DEFAULT_NEGATIVE_TTL,
+                    cacheSize
+            );
+            if (cachePurge) {
+                cache.purge();
+            } else {
+                cache.load();
+            }
+            engine = new CachingProbeEngine(engine, cache, !cacheBypass);
+        }
+        try {
+            ProbeBudget budget = null;
+            if (budgetMillis > 0) {
+                // 同时交给引擎的探测数量与引擎的并发数相同
+                int outstanding = adaptive != null
+                        ? adaptiveLimits.get(1)
+                        : engineName.equals("thread") ? threadNum : maxInFlight;
+                budget = new ProbeBudget(budgetMillis, outstanding, cache);
+            }
+            if (worker) {
+                ShardedCheck.work(Paths.get(dir, file), engine, timeout);
+                return;
+            }
+            if (merger != null) {
+                merger.merge(engine, timeout, budget);
+                if (mergeReport != null) merger.writeReport(Paths.get(mergeReport));
+                if (watch) System.out.println("watch 不能与 merge 一起使用");
+                return;
+            }
+            if (budget != null) {
+                if (journalFile != null) System.out.println("journal 不能与 budget 一起使用, 不写入日志");
+                checker.pingAndResolve(engine, timeout, budget);
+            } else if (journalFile != null) {
+                try (ProbeJournal journal = new ProbeJournal(Paths.get(journalFile), resume)) {
+                    checker.pingAndResolve(engine, timeout, journal);
+                }
+            } else {
+                checker.pingAndResolve(engine, timeout);
+            }
+            if (daemonInterval > 0) {
+                if (string != null) {
+                    System.out.println("daemon 只能用于文件");
+                } else {
+                    if (watch) System.out.println("daemon 会重新加载修改的文件, 不再使用 watch");
+                    // 定时检查不使用缓存的结果, 但结果仍然写入缓存
+                    ProbeEngine daemonEngine = cache != null ? new CachingProbeEngine(uncached, cache, false) : engine;
+                    HostDaemon daemon = new HostDaemon(checker, dir, file, daemonEngine, timeout, daemonInterval, daemonPort);
+                    try {
+                        Thread mainThread = Thread.currentThread();
+                        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                            daemon.close();
+                            // 等待主线程关闭引擎并保存缓存和指标
+                            try {
+                                mainThread.join(10000);
+                            } catch (InterruptedException ignored) {
+                            }
+                        }));
+                        daemon.run();
+                    } finally {
+                        daemon.close();
+                    }
+                }
+            } else if (watch) {
+                if (string != null) {
+                    System.out.println("watch 只能用于文件");
+                } else {
+                    try (HostWatcher watcher = new HostWatcher(checker, dir, file, engine, timeout)) {
+                        watcher.run();
+                    }
+                }
+            }
+        } finally {
+            if (adaptive != null) adaptive.printSummary();
+            if (hedged != null) hedged.printSummary();
+            engine.close();
+            if (cache != null) cache.save();
+            if (metricsFile != null) {
+                if (merger != null) {
+                    merger.getMetrics().writeJson(Paths.get(metricsFile));
+                } else if (checker != null) {
+                    checker.getMetrics().writeJson(Paths.get(metricsFile));
+                }
+            }
+        }
     }
 }
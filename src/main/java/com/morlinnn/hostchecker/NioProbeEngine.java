@@ -0,0 +1,377 @@
+package com.morlinnn.hostchecker;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于单个 {@link Selector} 的非阻塞 TCP connect 探测引擎
+ * <p>每个地址会同时向所有配置的端口发起连接, 任意一个端口连接成功
+ * (或被对方拒绝, 说明主机在线) 即视为可达, 所有端口均失败或超过超时时间视为超时。
+ * 同时进行的探测数量由 maxInFlight 限制, 超时由 selector 线程统一处理,
+ * 因此吞吐量只受网络限制而不受线程数限制。
+ * 取消返回的 future 会立即关闭该地址的所有连接</p>
+ * <p>只有对方的回应 (拒绝, 不可路由) 和超过截止时间计为端口失败; 本机的错误 (文件描述符耗尽, 网络不可用等)
+ * 不能说明主机不可达, 返回的 future 以该异常完成</p>
+ * <p>IP 字面量直接使用, 不进行 DNS 查询; 域名由单独的解析线程查询, 不阻塞调用 {@link #probe} 的线程</p>
+ */
+public class NioProbeEngine implements ProbeEngine {
+    public static final int[] DEFAULT_PORTS = {80, 443};
+    public static final int DEFAULT_MAX_IN_FLIGHT = 1000;
+    private static final int RESOLVER_THREADS = 16;
+
+    private final int[] ports;
+    private final int maxInFlight;
+    private final boolean refusedAsReachable;
+    private final Selector selector;
+    private final Thread selectorThread;
+    private final ThreadPoolExecutor resolver;
+    private final Queue<Probe> pending = new ConcurrentLinkedQueue<>();
+    private final Queue<Probe> cancelled = new ConcurrentLinkedQueue<>();
+    // 以下字段只在 selector 线程中访问
+    private final PriorityQueue<Probe> deadlines = new PriorityQueue<>(Comparator.comparingLong(p -> p.deadline));
+    private int inFlight = 0;
+    private volatile boolean closed = false;
+
+    /**
+     * 使用默认端口 {@link #DEFAULT_PORTS} 和默认并发数 {@link #DEFAULT_MAX_IN_FLIGHT}
+     * @throws IOException 无法打开 selector
+     */
+    public NioProbeEngine() throws IOException {
+        this(DEFAULT_PORTS, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * @param ports 探测的端口
+     * @param maxInFlight 同时进行探测的地址数量上限
+     * @throws IOException 无法打开 selector
+     */
+    public NioProbeEngine(int[] ports, int maxInFlight) throws IOException {
+        this(ports, maxInFlight, true);
+    }
+
+    /**
+     * @param ports 探测的端口
+     * @param maxInFlight 同时进行探测的地址数量上限
+     * @param refusedAsReachable 连接被拒绝时是否视为可达
+     * @throws IOException 无法打开 selector
+     */
+    public NioProbeEngine(int[] ports, int maxInFlight, boolean refusedAsReachable) throws IOException {
+        if (ports == null || ports.length == 0) {
+            throw new IllegalArgumentException("ports must not be empty");
+        }
+        for (int port : ports) {
+            if (port < 1 || port > 65535) throw new IllegalArgumentException("invalid port " + port);
+        }
+        if (maxInFlight < 1) throw new IllegalArgumentException("maxInFlight must be positive");
+        this.ports = ports.clone();
+        this.maxInFlight = maxInFlight;
+        this.refusedAsReachable = refusedAsReachable;
+        this.selector = Selector.open();
+        this.selectorThread = new Thread(this::loop, "nio-probe-selector");
+        this.selectorThread.setDaemon(true);
+        this.selectorThread.start();
+        this.resolver = new ThreadPoolExecutor(
+                RESOLVER_THREADS, RESOLVER_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "nio-probe-resolver");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+        );
+        this.resolver.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public CompletableFuture<ProbeResult> probe(String address, int timeout) {
+        CompletableFuture<ProbeResult> future = new CompletableFuture<>();
+        if (closed) {
+            future.completeExceptionally(new IllegalStateException("engine is closed"));
+            return future;
+        }
+        byte[] bytes = new byte[16];
+        int length = IpAddresses.parse(address, 0, address.length(), bytes);
+        if (length > 0) {
+            try {
+                submit(InetAddress.getByAddress(Arrays.copyOf(bytes, length)), timeout, future);
+            } catch (UnknownHostException e) {
+                future.completeExceptionally(e);
+            }
+            return future;
+        }
+        try {
+            resolver.execute(() -> {
+                // 解析完成前已经被取消
+                if (future.isDone()) return;
+                try {
+                    submit(InetAddress.getByName(address), timeout, future);
+                } catch (UnknownHostException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(new IllegalStateException("engine is closed"));
+        }
+        return future;
+    }
+
+    private void submit(InetAddress inetAddress, int timeout, CompletableFuture<ProbeResult> future) {
+        Probe probe = new Probe(inetAddress, timeout, future);
+        future.whenComplete((result, e) -> {
+            if (future.isCancelled()) {
+                cancelled.add(probe);
+                selector.wakeup();
+            }
+        });
+        pending.add(probe);
+        selector.wakeup();
+        // close 与 add 并发时 selector 线程可能已经退出
+        if (closed) failPending();
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        resolver.shutdownNow();
+        selector.wakeup();
+        try {
+            selectorThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void loop() {
+        try {
+            while (!closed) {
+                releaseCancelled();
+                startPending();
+                selector.select(nextWaitMillis());
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (key.isValid() && key.isConnectable()) handleConnect(key);
+                }
+                expire(System.nanoTime());
+            }
+        } catch (IOException | RuntimeException e) {
+            closed = true;
+        } finally {
+            for (Probe probe : deadlines) {
+                if (!probe.done) fail(probe, new IllegalStateException("engine is closed"));
+            }
+            deadlines.clear();
+            failPending();
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * 在并发上限内开始等待中的探测
+     */
+    private void startPending() {
+        Probe probe;
+        while (inFlight < maxInFlight && (probe = pending.poll()) != null) {
+            // 开始之前已经被取消
+            if (probe.future.isDone()) continue;
+            start(probe);
+        }
+    }
+
+    /**
+     * 关闭已被取消的探测的连接
+     */
+    private void releaseCancelled() {
+        Probe probe;
+        while ((probe = cancelled.poll()) != null) {
+            if (probe.channels != null && !probe.done) release(probe);
+        }
+    }
+
+    private void start(Probe probe) {
+        probe.start = System.nanoTime();
+        probe.deadline = probe.timeout > 0 ? probe.start + probe.timeout * 1_000_000L : Long.MAX_VALUE;
+        probe.channels = new SocketChannel[ports.length];
+        probe.remaining = ports.length;
+        inFlight++;
+        deadlines.add(probe);
+
+        for (int i = 0; i < ports.length && !probe.done; i++) {
+            SocketChannel channel;
+            try {
+                channel = SocketChannel.open();
+                probe.channels[i] = channel;
+                channel.configureBlocking(false);
+            } catch (IOException e) {
+                fail(probe, e);
+                return;
+            }
+            try {
+                if (channel.connect(new InetSocketAddress(probe.address, ports[i]))) {
+                    succeed(probe, i, false);
+                    return;
+                }
+            } catch (IOException e) {
+                attemptFailed(probe, i, e);
+                continue;
+            }
+            try {
+                channel.register(selector, SelectionKey.OP_CONNECT, new Attempt(probe, i));
+            } catch (IOException e) {
+                fail(probe, e);
+                return;
+            }
+        }
+    }
+
+    private void handleConnect(SelectionKey key) {
+        Attempt attempt = (Attempt) key.attachment();
+        if (attempt.probe.done) {
+            key.cancel();
+            return;
+        }
+        try {
+            if (((SocketChannel) key.channel()).finishConnect()) {
+                succeed(attempt.probe, attempt.index, false);
+            }
+        } catch (IOException e) {
+            attemptFailed(attempt.probe, attempt.index, e);
+        }
+    }
+
+    private void attemptFailed(Probe probe, int index, IOException e) {
+        if (probe.done) return;
+        // 本机的错误, 不计为端口失败
+        if (!(e instanceof ConnectException) && !(e instanceof NoRouteToHostException)) {
+            fail(probe, e);
+            return;
+        }
+        closeQuietly(probe.channels[index]);
+        // 截止时间前的 ConnectException 说明对方回应了连接 (通常是 RST), 异常信息因平台和语言而不同, 不作判断
+        if (refusedAsReachable && e instanceof ConnectException && System.nanoTime() - probe.deadline < 0) {
+            succeed(probe, index, true);
+            return;
+        }
+        probe.remaining--;
+        if (probe.remaining == 0) finish(probe, ProbeResult.timeout());
+    }
+
+    private void succeed(Probe probe, int index, boolean refused) {
+        int pingTime = (int) ((System.nanoTime() - probe.start) / 1_000_000L);
+        finish(probe, ProbeResult.reachable(pingTime, "tcp:" + ports[index] + (refused ? "/refused" : "")));
+    }
+
+    /**
+     * 将超过截止时间的探测标记为超时
+     * @param now 当前时间 (ns)
+     */
+    private void expire(long now) {
+        Probe probe;
+        while ((probe = deadlines.peek()) != null && (probe.done || probe.deadline - now <= 0)) {
+            deadlines.poll();
+            if (!probe.done) finish(probe, ProbeResult.timeout());
+        }
+    }
+
+    /**
+     * @return 距离最近的截止时间的毫秒数, 0 表示一直等待
+     */
+    private long nextWaitMillis() {
+        Probe probe;
+        while ((probe = deadlines.peek()) != null && probe.done) {
+            deadlines.poll();
+        }
+        if (probe == null || probe.deadline == Long.MAX_VALUE) return 0;
+        return Math.max(1, (probe.deadline - System.nanoTime() + 999_999L) / 1_000_000L);
+    }
+
+    private void finish(Probe probe, ProbeResult result) {
+        if (probe.done) return;
+        release(probe);
+        probe.future.complete(result);
+    }
+
+    private void fail(Probe probe, Throwable e) {
+        if (probe.done) return;
+        release(probe);
+        probe.future.completeExceptionally(e);
+    }
+
+    private void release(Probe probe) {
+        probe.done = true;
+        inFlight--;
+        for (SocketChannel channel : probe.channels) {
+            closeQuietly(channel);
+        }
+    }
+
+    private void failPending() {
+        Probe probe;
+        while ((probe = pending.poll()) != null) {
+            probe.future.completeExceptionally(new IllegalStateException("engine is closed"));
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * 单个地址的探测状态
+     */
+    private static class Probe {
+        final InetAddress address;
+        final int timeout;
+        final CompletableFuture<ProbeResult> future;
+        long start;
+        long deadline;
+        SocketChannel[] channels;
+        int remaining;
+        boolean done = false;
+
+        Probe(InetAddress address, int timeout, CompletableFuture<ProbeResult> future) {
+            this.address = address;
+            this.timeout = timeout;
+            this.future = future;
+        }
+    }
+
+    /**
+     * 单个端口的连接尝试
+     */
+    private static class Attempt {
+        final Probe probe;
+        final int index;
+
+        Attempt(Probe probe, int index) {
+            this.probe = probe;
+            this.index = index;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.morlinnn.hostchecker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * 使用 fork-join 并行分行, 解析和过滤很大的内容
+ * <p>内容按换行符 ("\r\n", "\n" 或 "\r") 对齐切分为多个块, 每个块独立分行和解析, 再按顺序合并, 行号与顺序加载时相同。
+ * 小于 {@link #PARALLEL_THRESHOLD} 的内容仍然顺序加载</p>
+ */
+final class ParallelLoader {
+    /**
+     * 内容达到此大小 (字节) 时并行加载
+     */
+    static final int PARALLEL_THRESHOLD = 8 << 20;
+    /**
+     * 有效行达到此数量时并行过滤
+     */
+    static final int PARALLEL_FILTER_THRESHOLD = 100_000;
+    private static final int MIN_CHUNK_SIZE = 1 << 20;
+    private static final int MIN_FILTER_LINES = 8192;
+
+    private ParallelLoader() {
+    }
+
+    /**
+     * @param size 内容大小 (字节)
+     * @return 是否应该并行加载
+     */
+    static boolean shouldLoadInParallel(int size) {
+        return size >= PARALLEL_THRESHOLD && ForkJoinPool.getCommonPoolParallelism() > 1;
+    }
+
+    /**
+     * @param validLineCount 有效行的数量
+     * @return 是否应该并行过滤
+     */
+    static boolean shouldFilterInParallel(int validLineCount) {
+        return validLineCount >= PARALLEL_FILTER_THRESHOLD && ForkJoinPool.getCommonPoolParallelism() > 1;
+    }
+
+    /**
+     * 并行分行并解析所有行
+     * @param data UTF-8 内容
+     * @param from 起始位置
+     * @param to 结束位置
+     * @param annotation 注释符号的 UTF-8 编码
+     * @return 合并后的结果, 行号从 1 开始
+     */
+    static Chunk load(byte[] data, int from, int to, byte[] annotation) {
+        int chunkSize = Math.max(MIN_CHUNK_SIZE, (to - from) / (ForkJoinPool.getCommonPoolParallelism() * 4));
+        List<ParseTask> tasks = new ArrayList<>();
+        int start = from;
+        while (start < to) {
+            // 内容接近 2GB 时 start + chunkSize 可能溢出
+            int end = alignToLineStart(data, (int) Math.min((long) start + chunkSize, to), to);
+            tasks.add(new ParseTask(data, start, end, annotation));
+            start = end;
+        }
+        ForkJoinTask.invokeAll(tasks);
+
+        List<Chunk> chunks = new ArrayList<>(tasks.size());
+        for (ParseTask task : tasks) {
+            chunks.add(task.join());
+        }
+        return merge(data, chunks);
+    }
+
+    /**
+     * 与 {@link LineStore} 的分行方式相同, 只使用 '\r' 换行的内容也可以切分
+     * @return position 之后第一个换行符的下一个位置, 即下一行的开始; 没有时返回 to
+     */
+    static int alignToLineStart(byte[] data, int position, int to) {
+        for (int i = position; i < to; i++) {
+            if (data[i] == '\n') return i + 1;
+            if (data[i] == '\r') {
+                // 不能把 "\r\n" 分到两个块中, 否则会多出一个空行
+                return i + 1 < to && data[i + 1] == '\n' ? i + 2 : i + 1;
+            }
+        }
+        return to;
+    }
+
+    /**
+     * 按顺序合并所有块, 每个块的行号加上之前所有块的行数
+     */
+    private static Chunk merge(byte[] data, List<Chunk> chunks) {
+        List<LineStore> stores = new ArrayList<>(chunks.size());
+        int validCount = 0;
+        for (Chunk chunk : chunks) {
+            stores.add(chunk.lines);
+            validCount += chunk.validLines.size();
+        }
+        IntList validLines = new IntList(validCount);
+        IntList packOffsets = new IntList(validCount * HostLineParser.FIELDS);
+        int base = 0;
+        for (Chunk chunk : chunks) {
+            for (int i = 0; i < chunk.validLines.size(); i++) {
+                validLines.add(base + chunk.validLines.get(i));
+            }
+            int[] offsets = chunk.packOffsets.array();
+            for (int i = 0; i < chunk.packOffsets.size(); i++) {
+                // 位置是整个 data 中的位置, 不需要调整
+                packOffsets.add(offsets[i]);
+            }
+            base += chunk.lines.size();
+        }
+        return new Chunk(LineStore.concat(data, stores), validLines, packOffsets);
+    }
+
+    /**
+     * 并行计算每个有效行是否需要保留
+     * @param packOffsets 有效行的位置, 每行 {@link HostLineParser#FIELDS} 个
+     * @param count 有效行的数量
+     * @param filter 判断已解析的行是否需要保留
+     * @return 每个有效行是否需要保留
+     */
+    static boolean[] filter(int[] packOffsets, int count, LineFilter filter) {
+        boolean[] keep = new boolean[count];
+        int threshold = Math.max(MIN_FILTER_LINES, count / (ForkJoinPool.getCommonPoolParallelism() * 4));
+        ForkJoinPool.commonPool().invoke(new FilterTask(packOffsets, 0, count, threshold, filter, keep));
+        return keep;
+    }
+
+    /**
+     * 判断已解析的行是否需要保留, 会被多个线程同时调用
+     */
+    interface LineFilter {
+        /**
+         * @param offsets {@link HostLineParser} 解析出的位置
+         * @return 是否保留
+         */
+        boolean test(int[] offsets);
+    }
+
+    /**
+     * 一个块的分行和解析结果
+     */
+    static final class Chunk {
+        final LineStore lines;
+        // 有效行在块内的行号, 从 1 开始
+        final IntList validLines;
+        final IntList packOffsets;
+
+        Chunk(LineStore lines, IntList validLines, IntList packOffsets) {
+            this.lines = lines;
+            this.validLines = validLines;
+            this.packOffsets = packOffsets;
+        }
+    }
+
+    private static final class ParseTask extends RecursiveTask<Chunk> {
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] data;
+        private final int from;
+        private final int to;
+        private final byte[] annotation;
+
+        ParseTask(byte[] data, int from, int to, byte[] annotation) {
+            this.data = data;
+            this.from = from;
+            this.to = to;
+            this.annotation = annotation;
+        }
+
+        @Override
+        protected Chunk compute() {
+            LineStore lines = new LineStore(data, from, to);
+            IntList validLines = new IntList(Math.max(16, lines.size() / 2));
+            IntList packOffsets = new IntList(Math.max(16, lines.size() / 2 * HostLineParser.FIELDS));
+            int[] offsets = new int[HostLineParser.FIELDS];
+            for (int i = 0; i < lines.size(); i++) {
+                if (!HostLineParser.parse(data, lines.start(i), lines.end(i), annotation, offsets, 0)) continue;
+                validLines.add(i + 1);
+                for (int offset : offsets) {
+                    packOffsets.add(offset);
+                }
+            }
+            return new Chunk(lines, validLines, packOffsets);
+        }
+    }
+
+    private static final class FilterTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] packOffsets;
+        private final int from;
+        private final int to;
+        private final int threshold;
+        private final LineFilter filter;
+        private final boolean[] keep;
+
+        FilterTask(int[] packOffsets, int from, int to, int threshold, LineFilter filter, boolean[] keep) {
+            this.packOffsets = packOffsets;
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+            this.filter = filter;
+            this.keep = keep;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > threshold) {
+                int middle = (from + to) >>> 1;
+                invokeAll(
+                        new FilterTask(packOffsets, from, middle, threshold, filter, keep),
+                        new FilterTask(packOffsets, middle, to, threshold, filter, keep)
+                );
+                return;
+            }
+            int[] offsets = new int[HostLineParser.FIELDS];
+            for (int i = from; i < to; i++) {
+                System.arraycopy(packOffsets, i * HostLineParser.FIELDS, offsets, 0, HostLineParser.FIELDS);
+                keep[i] = filter.test(offsets);
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.morlinnn.hostchecker;
+
+/**
+ * 一次探测的总时间预算
+ * <p>地址按优先级开始探测: 从未检查过的地址最先, 其余按上次检查的时间从早到晚。
+ * 每个探测的超时时间不超过剩余的预算, 剩余预算不足 {@link #MIN_PROBE_TIMEOUT} 时不再开始新的探测。
+ * 截止时没有结果的地址和使用缩短的超时时间仍然超时的地址都不能确定是否有效, 对应的行会被保留</p>
+ */
+public class ProbeBudget {
+    public static final int DEFAULT_MAX_OUTSTANDING = 64;
+    /**
+     * 单个探测的最小超时时间 (ms)
+     */
+    public static final int MIN_PROBE_TIMEOUT = 200;
+
+    private final long budgetMillis;
+    private final int maxOutstanding;
+    private final ProbeCache history;
+
+    /**
+     * @param budgetMillis 总时间 (ms)
+     */
+    public ProbeBudget(long budgetMillis) {
+        this(budgetMillis, DEFAULT_MAX_OUTSTANDING, null);
+    }
+
+    /**
+     * @param budgetMillis 总时间 (ms)
+     * @param maxOutstanding 同时交给引擎的探测数量, 通常与引擎的并发数相同,
+     *                       探测在开始时才计算超时时间, 因此不能一次全部交给引擎排队
+     * @param history 提供上次检查时间的缓存, 可以为 null, 此时按行的顺序探测
+     */
+    public ProbeBudget(long budgetMillis, int maxOutstanding, ProbeCache history) {
+        if (budgetMillis <= 0) throw new IllegalArgumentException("budget must be positive");
+        if (maxOutstanding < 1) throw new IllegalArgumentException("maxOutstanding must be positive");
+        this.budgetMillis = budgetMillis;
+        this.maxOutstanding = maxOutstanding;
+        this.history = history;
+    }
+
+    public long getBudgetMillis() {
+        return budgetMillis;
+    }
+
+    public int getMaxOutstanding() {
+        return maxOutstanding;
+    }
+
+    /**
+     * @param address 地址
+     * @return 上次检查的时间 (ms), 从未检查或没有缓存时返回 -1
+     */
+    long lastChecked(String address) {
+        return history == null ? -1 : history.lastChecked(address);
+    }
+}
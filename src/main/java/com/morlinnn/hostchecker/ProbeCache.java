@@ -0,0 +1,177 @@
+package com.morlinnn.hostchecker;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 跨运行保存的探测结果缓存, 地址 -> (是否可达, 延迟, 探测时间, 超时时间)
+ * <p>可达与超时的结果分别使用不同的有效期, 有效期只在 {@link #get(String, int)} 时判断,
+ * 已过期的条目仍然保留探测时间, 用于 {@link ProbeBudget} 的优先级。条目数量超过上限时淘汰最久未使用的条目。
+ * 文件格式为紧凑的二进制格式: 魔数, 版本, 条目数, 之后按最久未使用到最近使用的顺序写入每个条目</p>
+ */
+public class ProbeCache {
+    public static final long DEFAULT_POSITIVE_TTL = 24 * 60 * 60 * 1000L;
+    public static final long DEFAULT_NEGATIVE_TTL = 60 * 60 * 1000L;
+    public static final int DEFAULT_MAX_SIZE = 100000;
+
+    private static final int MAGIC = 0x48434348;
+    private static final int VERSION = 2;
+
+    private final Path file;
+    private final long positiveTtl;
+    private final long negativeTtl;
+    private final int maxSize;
+    // 插入顺序即最久未使用到最近使用的顺序, 使用的条目由 get 和 put 移到最后
+    private final LinkedHashMap<String, CacheEntry> entries;
+
+    /**
+     * 使用默认的有效期和条目上限
+     * @param file 缓存文件
+     */
+    public ProbeCache(Path file) {
+        this(file, DEFAULT_POSITIVE_TTL, DEFAULT_NEGATIVE_TTL, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param file 缓存文件
+     * @param positiveTtl 可达结果的有效期 (ms)
+     * @param negativeTtl 超时结果的有效期 (ms)
+     * @param maxSize 条目数量上限
+     */
+    public ProbeCache(Path file, long positiveTtl, long negativeTtl, int maxSize) {
+        if (maxSize < 1) throw new IllegalArgumentException("maxSize must be positive");
+        this.file = file;
+        this.positiveTtl = positiveTtl;
+        this.negativeTtl = negativeTtl;
+        this.maxSize = maxSize;
+        // 不使用访问顺序, 否则 lastChecked 也会改变淘汰的顺序
+        this.entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                return size() > ProbeCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * 从缓存文件加载条目, 文件不存在时不执行操作, 已过期的条目也会被加载
+     * @throws IOException 文件无法读取或格式错误
+     */
+    public synchronized void load() throws IOException {
+        if (!Files.exists(file)) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a probe cache file " + file);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String address = in.readUTF();
+                boolean reachable = in.readBoolean();
+                int pingTime = in.readInt();
+                String method = in.readUTF();
+                long timestamp = in.readLong();
+                int timeout = in.readInt();
+                entries.put(address, new CacheEntry(
+                        reachable ? ProbeResult.reachable(pingTime, method) : ProbeResult.timeout(),
+                        timestamp,
+                        timeout
+                ));
+            }
+        }
+    }
+
+    /**
+     * 将所有条目写入缓存文件, 通过 {@link AtomicFiles} 写入临时文件并同步到磁盘后原子地替换, 中途失败不会破坏原有的缓存文件
+     * @throws IOException 文件无法写入
+     */
+    public synchronized void save() throws IOException {
+        AtomicFiles.write(file, channel -> {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, CacheEntry> e : entries.entrySet()) {
+                ProbeResult result = e.getValue().result;
+                out.writeUTF(e.getKey());
+                out.writeBoolean(result.isReachable());
+                out.writeInt(result.getPingTime());
+                out.writeUTF(result.isReachable() ? result.getMethod() : "");
+                out.writeLong(e.getValue().timestamp);
+                out.writeInt(e.getValue().timeout);
+            }
+            out.flush();
+        });
+    }
+
+    /**
+     * 清空所有条目并删除缓存文件
+     * @throws IOException 文件无法删除
+     */
+    public synchronized void purge() throws IOException {
+        entries.clear();
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * 已过期的条目不会被移除, 仍然保留探测时间
+     * @param address 地址
+     * @param timeout 本次探测的超时时间 (ms)
+     * @return 未过期的结果, 超时的结果只在当时的超时时间不短于 timeout 时返回 (0 表示不限制), 没有则返回 null
+     */
+    public synchronized ProbeResult get(String address, int timeout) {
+        CacheEntry entry = entries.get(address);
+        if (entry == null || !isFresh(entry, System.currentTimeMillis())) return null;
+        if (!entry.result.isReachable() && entry.timeout > 0 && (timeout <= 0 || entry.timeout < timeout)) return null;
+        entries.remove(address);
+        entries.put(address, entry);
+        return entry.result;
+    }
+
+    /**
+     * 只读取探测时间, 不算作使用, 不影响淘汰的顺序
+     * @param address 地址
+     * @return 最近一次探测的时间 (ms), 包括已过期但还没有被淘汰的结果, 没有记录时返回 -1
+     */
+    public synchronized long lastChecked(String address) {
+        CacheEntry entry = entries.get(address);
+        return entry == null ? -1 : entry.timestamp;
+    }
+
+    /**
+     * @param address 地址
+     * @param result 探测结果
+     * @param timeout 探测使用的超时时间 (ms)
+     */
+    public synchronized void put(String address, ProbeResult result, int timeout) {
+        entries.remove(address);
+        entries.put(address, new CacheEntry(result, System.currentTimeMillis(), timeout));
+    }
+
+    /**
+     * @return 条目数量
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private boolean isFresh(CacheEntry entry, long now) {
+        long ttl = entry.result.isReachable() ? positiveTtl : negativeTtl;
+        return now - entry.timestamp < ttl;
+    }
+
+    private static class CacheEntry {
+        final ProbeResult result;
+        final long timestamp;
+        final int timeout;
+
+        CacheEntry(ProbeResult result, long timestamp, int timeout) {
+            this.result = result;
+            this.timestamp = timestamp;
+            this.timeout = timeout;
+        }
+    }
+}
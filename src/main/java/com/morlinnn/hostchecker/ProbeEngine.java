@@ -0,0 +1,34 @@
+package com.morlinnn.hostchecker;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 探测引擎, {@link HostChecker#getPingTimeoutLines(ProbeEngine, int)} 通过它提交所有的探测
+ * <p>实现需要是线程安全的, 返回的 future 必须最终完成 (正常或异常)</p>
+ */
+public interface ProbeEngine extends AutoCloseable {
+    /**
+     * 异步探测地址
+     * @param address 测试的地址
+     * @param timeout 超时时间 (ms)
+     * @return 探测结果
+     */
+    CompletableFuture<ProbeResult> probe(String address, int timeout);
+
+    /**
+     * 使用因时间预算缩短的超时时间探测, 超时的结果不能确定地址失效
+     * <p>默认与 {@link #probe(String, int)} 相同, 保存结果的引擎不应保存这样的超时结果</p>
+     * @param address 测试的地址
+     * @param timeout 缩短后的超时时间 (ms)
+     * @return 探测结果
+     */
+    default CompletableFuture<ProbeResult> probeShortened(String address, int timeout) {
+        return probe(address, timeout);
+    }
+
+    /**
+     * 释放引擎持有的线程或连接
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,230 @@
+package com.morlinnn.hostchecker;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 只追加的探测结果日志, 用于在进程被终止后继续检查
+ * <p>每个有效行的结果由单独的写入线程批量追加, 每批写入后交给操作系统, 探测线程只放入无锁队列。
+ * 继续检查时重放日志, 已有结果的行不再探测。日志记录了内容的哈希, 文件内容变化后日志不再使用。
+ * 关闭时压缩日志, 每行只保留最后一个结果</p>
+ * 文件格式: 魔数, 版本, 内容哈希, 之后每条记录一个 int: 行号 &lt;&lt; 1 | 是否超时
+ */
+public class ProbeJournal implements AutoCloseable {
+    private static final int MAGIC = 0x48434A4C;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    // 队列为空时写入线程的等待时间
+    private static final long IDLE_NANOS = 10_000_000L;
+
+    private final Path file;
+    private final boolean resume;
+    private final Queue<Entry> queue = new ConcurrentLinkedQueue<>();
+    // 以下字段在开始记录之后只由写入线程访问, close 时在写入线程结束后访问
+    private final BitSet covered = new BitSet();
+    private final BitSet failed = new BitSet();
+    private long contentHash;
+    private DataOutputStream out;
+    private Thread thread;
+    private volatile boolean closed = false;
+    private volatile IOException writeError;
+    private int replayed = 0;
+
+    /**
+     * @param file 日志文件
+     * @param resume 是否重放已有的日志, false 时丢弃已有的日志
+     */
+    public ProbeJournal(Path file, boolean resume) {
+        this.file = file;
+        this.resume = resume;
+    }
+
+    /**
+     * 重放已有的日志并开始写入
+     * @param contentHash 检查的内容的哈希, 与日志中的不同时丢弃已有的日志
+     * @throws IOException 日志无法读取或写入
+     */
+    synchronized void open(long contentHash) throws IOException {
+        if (thread != null) throw new IllegalStateException("journal is already opened");
+        this.contentHash = contentHash;
+        long validSize = resume ? replay() : -1;
+        FileChannel channel;
+        if (validSize < 0) {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            writeHeader(out);
+            out.flush();
+        } else {
+            // 丢弃中断时写了一半的记录
+            channel = FileChannel.open(file, StandardOpenOption.WRITE);
+            channel.truncate(validSize);
+            channel.position(validSize);
+            out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+        }
+        thread = new Thread(this::run, "probe-journal");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return 日志中有效部分的大小, 没有可用的日志时返回 -1
+     */
+    private long replay() throws IOException {
+        if (!Files.exists(file)) return -1;
+        long size = Files.size(file);
+        // 创建日志后, 写入文件头之前中断
+        if (size < HEADER_SIZE) {
+            System.out.println("journal has no header, start over");
+            return -1;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a probe journal file " + file);
+            }
+            if (in.readLong() != contentHash) {
+                System.out.println("journal is written for another content, start over");
+                return -1;
+            }
+            long records = (size - HEADER_SIZE) / 4;
+            for (long i = 0; i < records; i++) {
+                apply(in.readInt());
+            }
+            replayed = covered.cardinality();
+            return HEADER_SIZE + records * 4;
+        }
+    }
+
+    private void apply(int record) {
+        int line = record >>> 1;
+        covered.set(line);
+        if ((record & 1) != 0) {
+            failed.set(line);
+        } else {
+            failed.clear(line);
+        }
+    }
+
+    private void writeHeader(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(contentHash);
+    }
+
+    /**
+     * 记录一个地址的结果, 不阻塞
+     * @param packs 使用该地址的所有行
+     * @param reachable 是否可达
+     */
+    void record(List<HostChecker.ReadPack> packs, boolean reachable) {
+        if (writeError != null) return;
+        int[] records = new int[packs.size()];
+        for (int i = 0; i < records.length; i++) {
+            records[i] = packs.get(i).getLineIndex() << 1 | (reachable ? 0 : 1);
+        }
+        queue.offer(new Entry(records));
+    }
+
+    private void run() {
+        while (true) {
+            // 先读取 closed, 保证关闭前记录的结果都会在最后一次循环中写入
+            boolean last = closed;
+            boolean written = false;
+            Entry entry;
+            try {
+                while ((entry = queue.poll()) != null) {
+                    for (int record : entry.records) {
+                        out.writeInt(record);
+                        apply(record);
+                    }
+                    written = true;
+                }
+                if (written) out.flush();
+            } catch (IOException e) {
+                writeError = e;
+                return;
+            }
+            if (last) return;
+            LockSupport.parkNanos(this, IDLE_NANOS);
+        }
+    }
+
+    /**
+     * 只能在 open 之后, 开始记录之前调用
+     * @param line 行号
+     * @return 日志中是否已有该行的结果
+     */
+    boolean isCovered(int line) {
+        return covered.get(line);
+    }
+
+    /**
+     * 只能在 open 之后, 开始记录之前调用
+     * @param line 行号
+     * @return 日志中该行的最后一个结果是否为超时
+     */
+    boolean isFailed(int line) {
+        return failed.get(line);
+    }
+
+    /**
+     * @return 从已有日志中重放的行数
+     */
+    public int getReplayedLines() {
+        return replayed;
+    }
+
+    /**
+     * 写入所有已记录的结果并压缩日志
+     * @throws IOException 日志无法写入
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (thread == null || closed) return;
+        closed = true;
+        // 写入线程结束前不能关闭或压缩日志, 被中断时继续等待, 结束后恢复中断状态
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        out.close();
+        if (writeError != null) throw writeError;
+        compact();
+    }
+
+    /**
+     * 每行只保留最后一个结果, 通过 {@link AtomicFiles} 替换
+     */
+    private void compact() throws IOException {
+        AtomicFiles.write(file, channel -> {
+            DataOutputStream compacted = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            writeHeader(compacted);
+            for (int line = covered.nextSetBit(0); line >= 0; line = covered.nextSetBit(line + 1)) {
+                compacted.writeInt(line << 1 | (failed.get(line) ? 1 : 0));
+            }
+            // 由 AtomicFiles 关闭文件
+            compacted.flush();
+        });
+    }
+
+    private static class Entry {
+        final int[] records;
+
+        Entry(int[] records) {
+            this.records = records;
+        }
+    }
+}
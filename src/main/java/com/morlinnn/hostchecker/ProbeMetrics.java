@@ -0,0 +1,190 @@
+package com.morlinnn.hostchecker;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link HostChecker} 的运行指标, 可以在运行中读取, 也可以在结束后导出为 JSON
+ * <ul>
+ *     <li>每种探测结果的延迟直方图, 延迟为提交探测到得到结果的时间, 包括在引擎中排队的时间</li>
+ *     <li>正在探测的地址数量和最近一秒完成的探测数量</li>
+ *     <li>加载, 过滤, 探测, 移除, 保存各阶段的耗时, 多次运行时累加</li>
+ * </ul>
+ */
+public class ProbeMetrics {
+    /**
+     * 探测结果
+     */
+    public enum Outcome {
+        REACHABLE, TIMEOUT, ERROR
+    }
+
+    /**
+     * 运行阶段
+     */
+    public enum Phase {
+        LOAD, FILTER, PROBE, REMOVE, SAVE
+    }
+
+    // 按秒统计的环形缓冲, 每个槽的高 32 位为秒数, 低 32 位为该秒完成的数量
+    private static final int RATE_SLOTS = 64;
+
+    private final Map<Outcome, LatencyHistogram> latencies = new EnumMap<>(Outcome.class);
+    private final AtomicLongArray phaseNanos = new AtomicLongArray(Phase.values().length);
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLongArray rate = new AtomicLongArray(RATE_SLOTS);
+    private final long startNanos = System.nanoTime();
+    private volatile int probeLines = 0;
+    private volatile int probeAddresses = 0;
+
+    public ProbeMetrics() {
+        for (Outcome outcome : Outcome.values()) {
+            latencies.put(outcome, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * 记录一次探测的开始
+     */
+    void probeStarted() {
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * 记录一次探测的结束
+     * @param outcome 结果
+     * @param nanos 从开始到结束的时间 (ns)
+     */
+    void probeCompleted(Outcome outcome, long nanos) {
+        inFlight.decrementAndGet();
+        completed.incrementAndGet();
+        latencies.get(outcome).record(nanos / 1000);
+
+        long second = currentSecond();
+        int slot = (int) (second % RATE_SLOTS);
+        long current;
+        long next;
+        do {
+            current = rate.get(slot);
+            next = current >>> 32 == second ? current + 1 : second << 32 | 1;
+        } while (!rate.compareAndSet(slot, current, next));
+    }
+
+    /**
+     * 记录本次探测的行数和去重后的地址数量
+     */
+    void probeScheduled(int lines, int addresses) {
+        probeLines = lines;
+        probeAddresses = addresses;
+    }
+
+    /**
+     * 累加一个阶段的耗时
+     * @param phase 阶段
+     * @param nanos 耗时 (ns)
+     */
+    void recordPhase(Phase phase, long nanos) {
+        phaseNanos.addAndGet(phase.ordinal(), nanos);
+    }
+
+    private long currentSecond() {
+        return (System.nanoTime() - startNanos) / 1_000_000_000L;
+    }
+
+    /**
+     * @param outcome 探测结果
+     * @return 该结果的延迟直方图
+     */
+    public LatencyHistogram getLatency(Outcome outcome) {
+        return latencies.get(outcome);
+    }
+
+    /**
+     * @return 已提交但还没有结果的探测数量
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return 已完成的探测数量
+     */
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    /**
+     * @return 上一个完整的一秒内完成的探测数量
+     */
+    public long getCompletedPerSecond() {
+        long second = currentSecond() - 1;
+        if (second < 0) return 0;
+        long value = rate.get((int) (second % RATE_SLOTS));
+        return value >>> 32 == second ? value & 0xFFFFFFFFL : 0;
+    }
+
+    /**
+     * @param phase 阶段
+     * @return 该阶段的耗时 (ms)
+     */
+    public double getPhaseMillis(Phase phase) {
+        return phaseNanos.get(phase.ordinal()) / 1_000_000.0;
+    }
+
+    /**
+     * @return 最近一次探测的行数
+     */
+    public int getProbeLines() {
+        return probeLines;
+    }
+
+    /**
+     * @return 最近一次探测去重后的地址数量
+     */
+    public int getProbeAddresses() {
+        return probeAddresses;
+    }
+
+    /**
+     * @return 所有指标的 JSON 对象, 时间单位为 ms
+     */
+    public String toJson() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("{\"probeLines\":").append(probeLines)
+                .append(",\"probeAddresses\":").append(probeAddresses)
+                .append(",\"completed\":").append(getCompleted())
+                .append(",\"inFlight\":").append(getInFlight())
+                .append(",\"completedPerSecond\":").append(getCompletedPerSecond())
+                .append(",\"phases\":{");
+        for (Phase phase : Phase.values()) {
+            if (phase.ordinal() > 0) builder.append(',');
+            builder.append('"').append(phase.name().toLowerCase(Locale.ROOT)).append("\":")
+                    .append(LatencyHistogram.format(getPhaseMillis(phase)));
+        }
+        builder.append("},\"latency\":{");
+        for (Outcome outcome : Outcome.values()) {
+            if (outcome.ordinal() > 0) builder.append(',');
+            builder.append('"').append(outcome.name().toLowerCase(Locale.ROOT)).append("\":")
+                    .append(latencies.get(outcome).toJson());
+        }
+        return builder.append("}}").toString();
+    }
+
+    /**
+     * 将 {@link #toJson()} 写入文件
+     * @param file 文件
+     * @throws IOException
+     */
+    public void writeJson(Path file) throws IOException {
+        Files.write(file, toJson().getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,174 @@
+package com.morlinnn.hostchecker;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 异步输出探测结果
+ * <p>探测线程只把结果放入无锁队列, 由单独的输出线程批量格式化并写入, 探测线程不会因为控制台输出而互相等待</p>
+ */
+public class ProbeReporter implements AutoCloseable {
+    /**
+     * 输出格式
+     */
+    public enum Mode {
+        /**
+         * 不输出探测结果
+         */
+        QUIET,
+        /**
+         * 可读的文本, 每个有效行的域名和结果各占一行
+         */
+        HUMAN,
+        /**
+         * 每个有效行一个 JSON 对象
+         */
+        JSON
+    }
+
+    // 队列为空时输出线程的等待时间
+    private static final long IDLE_NANOS = 10_000_000L;
+
+    private final Mode mode;
+    private final PrintStream out;
+    private final Queue<Report> queue = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private volatile boolean closed = false;
+
+    /**
+     * @param mode 输出格式
+     * @param out 输出流
+     */
+    public ProbeReporter(Mode mode, PrintStream out) {
+        this.mode = mode;
+        this.out = out;
+        if (mode == Mode.QUIET) {
+            thread = null;
+        } else {
+            thread = new Thread(this::run, "probe-reporter");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * 发布一个地址的探测结果, 不阻塞
+     * @param packs 使用该地址的所有行
+     * @param result 探测结果, 出错时为 null
+     * @param error 探测错误, 没有错误时为 null
+     */
+    public void report(List<HostChecker.ReadPack> packs, ProbeResult result, Throwable error) {
+        if (thread == null) return;
+        queue.offer(new Report(packs, result, error instanceof CompletionException ? error.getCause() : error));
+    }
+
+    private void run() {
+        StringBuilder batch = new StringBuilder(8192);
+        while (true) {
+            // 先读取 closed, 保证关闭前发布的结果都会在最后一次循环中输出
+            boolean last = closed;
+            Report report;
+            while ((report = queue.poll()) != null) {
+                format(report, batch);
+            }
+            if (batch.length() > 0) {
+                out.print(batch);
+                out.flush();
+                batch.setLength(0);
+            }
+            if (last) return;
+            LockSupport.parkNanos(this, IDLE_NANOS);
+        }
+    }
+
+    private void format(Report report, StringBuilder batch) {
+        for (HostChecker.ReadPack pack : report.packs) {
+            if (mode == Mode.JSON) {
+                formatJson(report, pack, batch);
+            } else {
+                formatHuman(report, pack, batch);
+            }
+            batch.append(System.lineSeparator());
+        }
+    }
+
+    private static void formatHuman(Report report, HostChecker.ReadPack pack, StringBuilder batch) {
+        batch.append("ping: ").append(pack.getDomain()).append("\n      ").append(pack.getAddr());
+        if (report.error != null) {
+            batch.append(" error: ").append(report.error);
+        } else if (!report.result.isReachable()) {
+            batch.append(" is time out");
+        } else {
+            batch.append(' ').append(report.result.getMethod()).append(": ").append(report.result.getPingTime()).append("ms");
+        }
+    }
+
+    private static void formatJson(Report report, HostChecker.ReadPack pack, StringBuilder batch) {
+        batch.append("{\"line\":").append(pack.getLineIndex()).append(",\"domain\":");
+        appendJsonString(pack.getDomain(), batch);
+        batch.append(",\"address\":");
+        appendJsonString(pack.getAddr(), batch);
+        if (report.error != null) {
+            batch.append(",\"outcome\":\"error\",\"error\":");
+            appendJsonString(String.valueOf(report.error), batch);
+        } else if (!report.result.isReachable()) {
+            batch.append(",\"outcome\":\"timeout\"");
+        } else {
+            batch.append(",\"outcome\":\"reachable\",\"method\":");
+            appendJsonString(report.result.getMethod(), batch);
+            batch.append(",\"time\":").append(report.result.getPingTime());
+        }
+        batch.append('}');
+    }
+
+    static void appendJsonString(String value, StringBuilder builder) {
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < ' ') {
+                builder.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        builder.append('"');
+    }
+
+    /**
+     * 等待所有已发布的结果输出完成
+     */
+    @Override
+    public void close() {
+        if (thread == null || closed) return;
+        closed = true;
+        LockSupport.unpark(thread);
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private static class Report {
+        final List<HostChecker.ReadPack> packs;
+        final ProbeResult result;
+        final Throwable error;
+
+        Report(List<HostChecker.ReadPack> packs, ProbeResult result, Throwable error) {
+            this.packs = packs;
+            this.result = result;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.morlinnn.hostchecker;
+
+/**
+ * 单个地址的探测结果
+ */
+public class ProbeResult {
+    /**
+     * 超时(不可达)时的延迟值
+     */
+    public static final int TIMEOUT = -1;
+
+    private static final ProbeResult TIMEOUT_RESULT = new ProbeResult(TIMEOUT, null);
+
+    private final int pingTime;
+    private final String method;
+
+    private ProbeResult(int pingTime, String method) {
+        this.pingTime = pingTime;
+        this.method = method;
+    }
+
+    /**
+     * @param pingTime 延迟 (ms)
+     * @param method 成功的探测方式, 例如 "ping", "tcp:443"
+     * @return 可达的探测结果
+     */
+    public static ProbeResult reachable(int pingTime, String method) {
+        return new ProbeResult(pingTime, method);
+    }
+
+    /**
+     * 将 {@link Prober} 返回的时间转换为探测结果
+     * @param pingTime 延迟 (ms), -1 为超时
+     * @param method 成功的探测方式
+     * @return 探测结果
+     */
+    public static ProbeResult of(int pingTime, String method) {
+        return pingTime == TIMEOUT ? TIMEOUT_RESULT : new ProbeResult(pingTime, method);
+    }
+
+    /**
+     * @return 超时的探测结果
+     */
+    public static ProbeResult timeout() {
+        return TIMEOUT_RESULT;
+    }
+
+    /**
+     * @return 是否可达
+     */
+    public boolean isReachable() {
+        return pingTime != TIMEOUT;
+    }
+
+    /**
+     * @return 延迟 (ms), 超时为 -1
+     */
+    public int getPingTime() {
+        return pingTime;
+    }
+
+    /**
+     * @return 成功的探测方式, 超时为 null
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    @Override
+    public String toString() {
+        return isReachable() ? method + " " + pingTime + "ms" : "time out";
+    }
+}
@@ -0,0 +1,338 @@
+package com.morlinnn.hostchecker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 非阻塞的探测结果流, 每个有效行的结果在得到时发布, 接口与 java.util.concurrent.Flow 相同,
+ * 但不依赖 JDK 9 以上的类
+ * <ul>
+ *     <li>只能有一个订阅者, 订阅时才开始探测</li>
+ *     <li>背压: 按行计算, 已开始还没有结果的地址的行数和等待订阅者请求的结果合计不超过 bufferSize,
+ *     订阅者处理慢时暂停开始新的探测。一个地址的所有行同时发布, 开始前先计入该地址的行数;
+ *     行数超过 bufferSize 的地址只在没有其它行占用缓冲区时开始</li>
+ *     <li>取消订阅或取消 {@link #completion()} 会停止开始新的探测并取消正在进行的探测</li>
+ *     <li>单个探测出错时只发布该行的错误, 不会结束流。订阅者抛出异常时取消探测并以该异常结束</li>
+ * </ul>
+ * 无论以何种方式结束, {@link #completion()} 都会完成
+ */
+public class ProbeStream {
+    public static final int DEFAULT_BUFFER_SIZE = 256;
+
+    private final List<Map.Entry<String, List<HostChecker.ReadPack>>> groups;
+    private final ProbeEngine engine;
+    private final int timeout;
+    private final int bufferSize;
+    private final ProbeMetrics metrics;
+    private final ConcurrentBitSet failed;
+    private final CompletableFuture<Set<Integer>> completion = new CompletableFuture<>();
+
+    private final AtomicBoolean subscribed = new AtomicBoolean(false);
+    private final Queue<LineResult> queue = new ConcurrentLinkedQueue<>();
+    private final Set<CompletableFuture<ProbeResult>> running = ConcurrentHashMap.newKeySet();
+    private final AtomicLong requested = new AtomicLong();
+    // 已开始还没有结果的地址的行数
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicInteger buffered = new AtomicInteger();
+    // 保证同一时间只有一个线程开始探测和调用订阅者
+    private final AtomicInteger wip = new AtomicInteger();
+    private volatile boolean cancelled = false;
+    private volatile Throwable error;
+    // 以下字段只在 drain 中访问
+    private Subscriber subscriber;
+    private int next = 0;
+    private long emitted = 0;
+    private boolean done = false;
+    private long probeStart;
+
+    ProbeStream(Map<String, List<HostChecker.ReadPack>> groups, int lineCount, ProbeEngine engine, int timeout, int bufferSize, ProbeMetrics metrics) {
+        if (bufferSize < 1) throw new IllegalArgumentException("bufferSize must be positive");
+        this.groups = new ArrayList<>(groups.entrySet());
+        this.engine = engine;
+        this.timeout = timeout;
+        this.bufferSize = bufferSize;
+        this.metrics = metrics;
+        this.failed = new ConcurrentBitSet(lineCount + 1);
+        completion.whenComplete((result, e) -> {
+            if (completion.isCancelled()) cancel();
+        });
+    }
+
+    /**
+     * 订阅结果并开始探测
+     * @param subscriber 订阅者
+     */
+    public void subscribe(Subscriber subscriber) {
+        if (subscriber == null) throw new NullPointerException("subscriber");
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("ProbeStream allows only one subscriber"));
+            return;
+        }
+        this.subscriber = subscriber;
+        probeStart = System.nanoTime();
+        metrics.probeScheduled(groups.stream().mapToInt(group -> group.getValue().size()).sum(), groups.size());
+        try {
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                    if (n <= 0) {
+                        fail(new IllegalArgumentException("request must be positive, got " + n));
+                        return;
+                    }
+                    long current;
+                    do {
+                        current = requested.get();
+                    } while (!requested.compareAndSet(current, current + n < 0 ? Long.MAX_VALUE : current + n));
+                    drain();
+                }
+
+                @Override
+                public void cancel() {
+                    ProbeStream.this.cancel();
+                }
+            });
+        } catch (Throwable e) {
+            fail(e);
+        }
+        drain();
+    }
+
+    /**
+     * 不订阅单行结果, 直接开始探测
+     * @return {@link #completion()}
+     */
+    public CompletableFuture<Set<Integer>> start() {
+        subscribe(new Subscriber() {
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(LineResult item) {
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+        return completion;
+    }
+
+    /**
+     * @return 所有探测结束后完成, 结果为超时的行; 订阅者出错时异常完成, 取消时以 {@link CancellationException} 完成
+     */
+    public CompletableFuture<Set<Integer>> completion() {
+        return completion;
+    }
+
+    /**
+     * 停止开始新的探测并取消正在进行的探测
+     */
+    public void cancel() {
+        if (cancelled) return;
+        cancelled = true;
+        for (CompletableFuture<ProbeResult> future : running) {
+            future.cancel(true);
+        }
+        drain();
+    }
+
+    private void fail(Throwable e) {
+        if (error == null) error = e;
+        cancel();
+    }
+
+    private void drain() {
+        if (wip.getAndIncrement() != 0) return;
+        do {
+            if (done || subscriber == null) continue;
+            if (cancelled) {
+                finish();
+                continue;
+            }
+            boolean progress = true;
+            while (progress && !cancelled) {
+                // 在缓冲区允许的范围内开始新的探测
+                while (!cancelled && next < groups.size() && hasRoomFor(groups.get(next).getValue().size())) {
+                    start(groups.get(next++));
+                }
+                // 发布结果后缓冲区有了空间, 需要再次开始新的探测
+                progress = false;
+                LineResult item;
+                while (!cancelled && emitted < requested.get() && (item = queue.poll()) != null) {
+                    buffered.decrementAndGet();
+                    emitted++;
+                    progress = true;
+                    try {
+                        subscriber.onNext(item);
+                    } catch (Throwable e) {
+                        fail(e);
+                    }
+                }
+            }
+            if (cancelled) {
+                finish();
+            } else if (next == groups.size() && outstanding.get() == 0 && queue.isEmpty()) {
+                // 完成回调先放入结果再减少 outstanding, 因此这里不会漏掉结果
+                finish();
+            }
+        } while (wip.decrementAndGet() != 0);
+    }
+
+    private boolean hasRoomFor(int lines) {
+        long used = (long) outstanding.get() + buffered.get();
+        return used == 0 || used + lines <= bufferSize;
+    }
+
+    private void finish() {
+        done = true;
+        queue.clear();
+        metrics.recordPhase(ProbeMetrics.Phase.PROBE, System.nanoTime() - probeStart);
+        Throwable e = error;
+        try {
+            if (e != null) {
+                subscriber.onError(e);
+            } else if (cancelled) {
+                subscriber.onError(new CancellationException("probe stream is cancelled"));
+            } else {
+                subscriber.onComplete();
+            }
+        } catch (Throwable ignored) {
+            // 订阅者在结束回调中的异常无法再传递
+        } finally {
+            if (e != null) {
+                completion.completeExceptionally(e);
+            } else if (cancelled) {
+                completion.cancel(false);
+            } else {
+                completion.complete(failed.toSet());
+            }
+        }
+    }
+
+    private void start(Map.Entry<String, List<HostChecker.ReadPack>> group) {
+        List<HostChecker.ReadPack> packs = group.getValue();
+        outstanding.addAndGet(packs.size());
+        metrics.probeStarted();
+        long submitted = System.nanoTime();
+        CompletableFuture<ProbeResult> future;
+        try {
+            future = engine.probe(group.getKey(), timeout);
+        } catch (Throwable e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+        running.add(future);
+        CompletableFuture<ProbeResult> probe = future;
+        future.whenComplete((result, e) -> {
+            running.remove(probe);
+            Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+            metrics.probeCompleted(
+                    cause != null
+                            ? ProbeMetrics.Outcome.ERROR
+                            : result.isReachable() ? ProbeMetrics.Outcome.REACHABLE : ProbeMetrics.Outcome.TIMEOUT,
+                    System.nanoTime() - submitted
+            );
+            if (!cancelled) {
+                for (HostChecker.ReadPack pack : packs) {
+                    // 探测出错时无法判断地址是否有效, 不算作超时
+                    if (cause == null && !result.isReachable()) failed.set(pack.getLineIndex());
+                    buffered.incrementAndGet();
+                    queue.offer(new LineResult(pack, cause == null ? result : null, cause));
+                }
+            }
+            outstanding.addAndGet(-packs.size());
+            drain();
+        });
+    }
+
+    /**
+     * 与 java.util.concurrent.Flow.Subscriber 相同
+     */
+    public interface Subscriber {
+        void onSubscribe(Subscription subscription);
+
+        void onNext(LineResult item);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+    }
+
+    /**
+     * 与 java.util.concurrent.Flow.Subscription 相同
+     */
+    public interface Subscription {
+        /**
+         * @param n 再请求的结果数量, 必须为正数
+         */
+        void request(long n);
+
+        void cancel();
+    }
+
+    /**
+     * 一个有效行的探测结果
+     */
+    public static class LineResult {
+        private final HostChecker.ReadPack pack;
+        private final ProbeResult result;
+        private final Throwable error;
+
+        LineResult(HostChecker.ReadPack pack, ProbeResult result, Throwable error) {
+            this.pack = pack;
+            this.result = result;
+            this.error = error;
+        }
+
+        public HostChecker.ReadPack getPack() {
+            return pack;
+        }
+
+        /**
+         * @return 探测结果, 出错时为 null
+         */
+        public ProbeResult getResult() {
+            return result;
+        }
+
+        /**
+         * @return 探测错误, 没有错误时为 null
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        /**
+         * @return 是否确定超时, 出错时为 false
+         */
+        public boolean isTimeout() {
+            return result != null && !result.isReachable();
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.morlinnn.hostchecker;
+
+import java.io.IOException;
+
+/**
+ * 阻塞式的单地址探测, 默认实现为 {@link HostChecker#ping(String, int)}
+ */
+@FunctionalInterface
+public interface Prober {
+    /**
+     * @param address 测试的地址
+     * @param timeout 超时时间
+     * @return 如果未超时返回 ping 时间 (ms), 否在返回-1
+     * @throws IOException
+     */
+    int ping(String address, int timeout) throws IOException;
+}
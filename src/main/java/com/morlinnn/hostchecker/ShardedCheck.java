@@ -0,0 +1,254 @@
+package com.morlinnn.hostchecker;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 分片检查: 将有效行按地址的哈希分为多个分片, 由独立的进程 (可以在不同的机器上) 分别检查, 最后合并结果
+ * <ol>
+ *     <li>{@link #split}: 每个分片写入一个清单文件 shard-N.manifest, 每行一个地址和使用该地址的行号,
+ *     同一地址只在一个分片中</li>
+ *     <li>{@link #work}: 只需要清单文件, 探测其中的地址, 将超时的地址和行号写入 shard-N.result</li>
+ *     <li>{@link #merge}: 读取所有分片的结果, 移除所有超时的行并保存</li>
+ * </ol>
+ * 清单和结果中记录了内容的哈希, 分片编号和分片数量, 文件在分片后被修改, 结果文件的编号与文件名不符或分片数量不一致时拒绝合并。
+ * 清单和结果文件通过 {@link AtomicFiles} 写入, 结果文件以结尾的 "# done" 行表示完整
+ */
+public final class ShardedCheck {
+    private static final String MANIFEST_HEADER = "# hostchecker-shard";
+    private static final String RESULT_HEADER = "# hostchecker-result";
+    private static final String DONE = "# done";
+
+    private ShardedCheck() {
+    }
+
+    /**
+     * 将所有有效行按地址分片, 写入 shards 个清单文件
+     * @param checker 已加载的检查器
+     * @param dir 清单文件所在路径, 不存在时创建
+     * @param shards 分片数量
+     * @return 清单文件
+     * @throws IOException 无法写入清单文件
+     */
+    public static List<Path> split(HostChecker checker, Path dir, int shards) throws IOException {
+        if (shards < 1) throw new IllegalArgumentException("shards must be positive");
+        Files.createDirectories(dir);
+        String hash = Long.toHexString(checker.contentHash());
+        List<List<String>> entries = new ArrayList<>();
+        for (int i = 0; i < shards; i++) {
+            List<String> lines = new ArrayList<>();
+            lines.add(MANIFEST_HEADER + " " + i + " " + shards + " " + hash);
+            entries.add(lines);
+        }
+        for (Map.Entry<String, List<HostChecker.ReadPack>> group : checker.groupByAddress().entrySet()) {
+            entries.get(shardOf(group.getKey(), shards)).add(group.getKey() + "\t" + joinLines(group.getValue()));
+        }
+        List<Path> manifests = new ArrayList<>();
+        for (int i = 0; i < shards; i++) {
+            Path manifest = dir.resolve(manifestName(i));
+            writeLines(manifest, entries.get(i));
+            manifests.add(manifest);
+            System.out.println(manifest.getFileName() + ": " + (entries.get(i).size() - 1) + " address");
+        }
+        return manifests;
+    }
+
+    /**
+     * @return 地址所在的分片, 与 JVM 和机器无关
+     */
+    static int shardOf(String address, int shards) {
+        // String.hashCode 的算法是固定的
+        return (address.hashCode() & 0x7fffffff) % shards;
+    }
+
+    /**
+     * 检查一个分片, 结果写入清单同一文件夹中的 shard-N.result
+     * @param manifest 清单文件
+     * @param engine 探测引擎
+     * @param timeout 超时时间
+     * @return 结果文件
+     * @throws IOException 无法读取清单或写入结果
+     * @throws InterruptedException
+     */
+    public static Path work(Path manifest, ProbeEngine engine, int timeout) throws IOException, InterruptedException {
+        List<String> lines = Files.readAllLines(manifest, StandardCharsets.UTF_8);
+        String[] header = lines.isEmpty() ? new String[0] : lines.get(0).split(" ");
+        if (header.length != 5 || !(header[0] + " " + header[1]).equals(MANIFEST_HEADER)) {
+            throw new IOException("Not a shard manifest " + manifest);
+        }
+        int shard;
+        int shards;
+        try {
+            shard = Integer.parseInt(header[2]);
+            shards = Integer.parseInt(header[3]);
+        } catch (NumberFormatException e) {
+            throw new IOException("Not a shard manifest " + manifest, e);
+        }
+        String hash = header[4];
+        // 先检查所有行, 不在探测途中失败
+        List<String> entries = new ArrayList<>();
+        for (String entry : lines.subList(1, lines.size())) {
+            // 手动编辑后可能留下空行
+            if (entry.isEmpty()) continue;
+            if (entry.indexOf('\t') <= 0) throw new IOException("Not a shard manifest " + manifest);
+            entries.add(entry);
+        }
+
+        long probeStart = System.nanoTime();
+        int addressCount = entries.size();
+        CountDownLatch latch = new CountDownLatch(addressCount);
+        Queue<String> timedOut = new ConcurrentLinkedQueue<>();
+        AtomicInteger errors = new AtomicInteger();
+        for (String entry : entries) {
+            String address = entry.substring(0, entry.indexOf('\t'));
+            engine.probe(address, timeout).whenComplete((result, e) -> {
+                // 探测出错时无法判断地址是否有效, 保留该行
+                if (e != null) {
+                    errors.incrementAndGet();
+                } else if (!result.isReachable()) {
+                    timedOut.add(entry);
+                }
+                latch.countDown();
+            });
+        }
+        latch.await();
+
+        Path resultFile = manifest.resolveSibling(resultName(shard));
+        List<String> result = new ArrayList<>();
+        result.add(RESULT_HEADER + " " + shard + " " + shards + " " + hash);
+        result.addAll(timedOut);
+        result.add(DONE + " " + addressCount + " " + timedOut.size() + " " + errors.get());
+        writeLines(resultFile, result);
+        System.out.println(
+                "shard "
+                        + shard
+                        + ": "
+                        + addressCount
+                        + " address probed in "
+                        + (System.nanoTime() - probeStart) / 1_000_000
+                        + "ms, "
+                        + timedOut.size()
+                        + " time out, "
+                        + errors.get()
+                        + " error"
+        );
+        return resultFile;
+    }
+
+    /**
+     * 读取所有分片的结果, 移除超时的行并保存
+     * @param checker 分片时使用的检查器, 或者从未修改的同一文件重新加载的检查器
+     * @param dir 结果文件所在路径
+     * @throws IOException 结果不完整, 与当前内容不符或无法保存
+     */
+    public static void merge(HostChecker checker, Path dir) throws IOException {
+        String hash = Long.toHexString(checker.contentHash());
+        Set<Integer> failed = new HashSet<>();
+        int shards = -1;
+        List<Integer> missing = new ArrayList<>();
+        for (int shard = 0; shards < 0 || shard < shards; shard++) {
+            Path resultFile = dir.resolve(resultName(shard));
+            if (!Files.exists(resultFile)) {
+                if (shards < 0) throw new IOException("No shard result in " + dir.toAbsolutePath());
+                missing.add(shard);
+                continue;
+            }
+            try (BufferedReader reader = Files.newBufferedReader(resultFile, StandardCharsets.UTF_8)) {
+                String[] header = String.valueOf(reader.readLine()).split(" ");
+                if (header.length != 5 || !(header[0] + " " + header[1]).equals(RESULT_HEADER)) {
+                    throw new IOException("Not a shard result " + resultFile);
+                }
+                if (!header[4].equals(hash)) {
+                    throw new IOException(resultFile + " is checked for another content");
+                }
+                int resultShard;
+                int resultShards;
+                try {
+                    resultShard = Integer.parseInt(header[2]);
+                    resultShards = Integer.parseInt(header[3]);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Not a shard result " + resultFile, e);
+                }
+                // 被改名或复制的结果文件会让其它分片的行被遗漏
+                if (resultShard != shard) {
+                    throw new IOException(resultFile + " is the result of shard " + resultShard);
+                }
+                if (shards < 0) {
+                    if (resultShards < 1) throw new IOException("Not a shard result " + resultFile);
+                    shards = resultShards;
+                } else if (resultShards != shards) {
+                    throw new IOException(resultFile + " is split into " + resultShards + " shards, others into " + shards);
+                }
+                boolean done = false;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith(DONE)) {
+                        done = true;
+                        break;
+                    }
+                    if (line.isEmpty()) continue;
+                    int tab = line.indexOf('\t');
+                    if (tab <= 0) throw new IOException("Not a shard result " + resultFile);
+                    try {
+                        for (String lineIndex : line.substring(tab + 1).split(",")) {
+                            failed.add(Integer.parseInt(lineIndex));
+                        }
+                    } catch (NumberFormatException e) {
+                        throw new IOException("Not a shard result " + resultFile, e);
+                    }
+                }
+                if (!done) throw new IOException(resultFile + " is incomplete");
+            }
+        }
+        if (!missing.isEmpty()) throw new IOException("Missing shard results " + missing);
+        System.out.println("merge " + shards + " shards, " + failed.size() + " lines time out");
+        checker.removeFromIndexes(failed);
+        checker.save();
+    }
+
+    /**
+     * 通过 {@link AtomicFiles} 写入, 中断时不会留下不完整的文件
+     */
+    private static void writeLines(Path file, List<String> lines) throws IOException {
+        AtomicFiles.write(file, channel -> {
+            BufferedWriter writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), -1));
+            for (String line : lines) {
+                writer.write(line);
+                writer.newLine();
+            }
+            // 由 AtomicFiles 关闭文件
+            writer.flush();
+        });
+    }
+
+    private static String joinLines(List<HostChecker.ReadPack> packs) {
+        StringBuilder builder = new StringBuilder();
+        for (HostChecker.ReadPack pack : packs) {
+            if (builder.length() > 0) builder.append(',');
+            builder.append(pack.getLineIndex());
+        }
+        return builder.toString();
+    }
+
+    static String manifestName(int shard) {
+        return "shard-" + shard + ".manifest";
+    }
+
+    static String resultName(int shard) {
+        return "shard-" + shard + ".result";
+    }
+}
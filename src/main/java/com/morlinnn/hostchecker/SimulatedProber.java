@@ -0,0 +1,177 @@
+package com.morlinnn.hostchecker;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 确定性的模拟探测, 不访问网络
+ * <p>每个地址的结果和延迟只由种子和地址决定, 与探测的顺序和线程无关, 相同的配置总是得到相同的结果。
+ * 延迟超过超时时间时为超时; 可以为单个地址指定结果或延迟分布</p>
+ * <p>默认不等待, 只测量调度的开销; {@link #setTimeScale(double)} 大于 0 时线程阻塞 延迟 * timeScale 的时间,
+ * 超时的探测阻塞 超时时间 * timeScale。不等待时调用方测得的延迟只是排队和调度的时间,
+ * 模拟的延迟另外记录在 {@link #getSimulatedLatency(ProbeMetrics.Outcome)} 中</p>
+ */
+public class SimulatedProber implements Prober {
+    private final long seed;
+    private final Latency latency;
+    private final double lossRate;
+    private final double errorRate;
+    private final Map<String, ProbeMetrics.Outcome> outcomes = new ConcurrentHashMap<>();
+    private final Map<String, Latency> latencies = new ConcurrentHashMap<>();
+    private final AtomicLong probes = new AtomicLong();
+    private final Map<ProbeMetrics.Outcome, LatencyHistogram> simulatedLatencies = new EnumMap<>(ProbeMetrics.Outcome.class);
+    private volatile double timeScale = 0;
+
+    /**
+     * @param seed 随机种子
+     * @param latency 可达地址的延迟分布
+     * @param lossRate 超时的地址比例, 0 ~ 1
+     * @param errorRate 抛出 IOException 的地址比例, 0 ~ 1
+     */
+    public SimulatedProber(long seed, Latency latency, double lossRate, double errorRate) {
+        if (lossRate < 0 || errorRate < 0 || lossRate + errorRate > 1) {
+            throw new IllegalArgumentException("lossRate and errorRate must be in [0, 1]");
+        }
+        this.seed = seed;
+        this.latency = latency;
+        this.lossRate = lossRate;
+        this.errorRate = errorRate;
+        for (ProbeMetrics.Outcome outcome : ProbeMetrics.Outcome.values()) {
+            simulatedLatencies.put(outcome, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * 指定地址的结果, 不再随机
+     * @param address 地址
+     * @param outcome 结果, {@link ProbeMetrics.Outcome#ERROR} 时抛出 IOException
+     */
+    public void setOutcome(String address, ProbeMetrics.Outcome outcome) {
+        outcomes.put(address, outcome);
+    }
+
+    /**
+     * 指定地址可达时的延迟分布
+     * @param address 地址
+     * @param latency 延迟分布
+     */
+    public void setLatency(String address, Latency latency) {
+        latencies.put(address, latency);
+    }
+
+    /**
+     * @param timeScale 实际等待的时间与模拟延迟的比例, 0 为不等待, 1 为实时
+     */
+    public void setTimeScale(double timeScale) {
+        this.timeScale = timeScale;
+    }
+
+    @Override
+    public int ping(String address, int timeout) throws IOException {
+        probes.incrementAndGet();
+        SplittableRandom random = new SplittableRandom(seed ^ fnv1a(address));
+        ProbeMetrics.Outcome outcome = outcomes.get(address);
+        if (outcome == null) {
+            double roll = random.nextDouble();
+            outcome = roll < errorRate
+                    ? ProbeMetrics.Outcome.ERROR
+                    : roll < errorRate + lossRate ? ProbeMetrics.Outcome.TIMEOUT : ProbeMetrics.Outcome.REACHABLE;
+        }
+        if (outcome == ProbeMetrics.Outcome.ERROR) {
+            throw new IOException("simulated error for " + address);
+        }
+        int millis = outcome == ProbeMetrics.Outcome.TIMEOUT
+                ? timeout
+                : (int) Math.min(Integer.MAX_VALUE, Math.round(latencies.getOrDefault(address, latency).sample(random)));
+        boolean timedOut = outcome == ProbeMetrics.Outcome.TIMEOUT || millis >= timeout;
+        simulatedLatencies.get(timedOut ? ProbeMetrics.Outcome.TIMEOUT : ProbeMetrics.Outcome.REACHABLE)
+                .record((timedOut ? timeout : millis) * 1000L);
+        sleep(timedOut ? timeout : millis);
+        return timedOut ? -1 : millis;
+    }
+
+    /**
+     * @param outcome 探测结果
+     * @return 模拟的延迟分布, 不包括排队和调度的时间; 超时的探测记为超时时间, 出错的探测不记录
+     */
+    public LatencyHistogram getSimulatedLatency(ProbeMetrics.Outcome outcome) {
+        return simulatedLatencies.get(outcome);
+    }
+
+    private void sleep(int millis) {
+        long nanos = (long) (millis * timeScale * 1_000_000L);
+        if (nanos <= 0) return;
+        try {
+            Thread.sleep(nanos / 1_000_000L, (int) (nanos % 1_000_000L));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return 调用 {@link #ping(String, int)} 的次数
+     */
+    public long getProbeCount() {
+        return probes.get();
+    }
+
+    private static long fnv1a(String address) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < address.length(); i++) {
+            hash ^= address.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Box-Muller 变换, SplittableRandom 没有 nextGaussian
+     */
+    private static double gaussian(SplittableRandom random) {
+        double u = 1 - random.nextDouble();
+        return Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * random.nextDouble());
+    }
+
+    /**
+     * 延迟分布 (ms)
+     */
+    @FunctionalInterface
+    public interface Latency {
+        /**
+         * @param random 由种子和地址决定的随机数
+         * @return 延迟 (ms)
+         */
+        double sample(SplittableRandom random);
+
+        /**
+         * @param millis 延迟 (ms)
+         * @return 固定的延迟
+         */
+        static Latency fixed(double millis) {
+            return random -> millis;
+        }
+
+        /**
+         * @param min 最小延迟 (ms)
+         * @param max 最大延迟 (ms)
+         * @return 均匀分布的延迟
+         */
+        static Latency uniform(double min, double max) {
+            return random -> min + random.nextDouble() * (max - min);
+        }
+
+        /**
+         * 对数正态分布, 大部分地址接近中位数, 少数地址的延迟很高, 接近真实网络的长尾
+         * @param median 中位数 (ms)
+         * @param sigma 对数的标准差, 越大尾部越长
+         * @return 对数正态分布的延迟
+         */
+        static Latency logNormal(double median, double sigma) {
+            return random -> median * Math.exp(sigma * gaussian(random));
+        }
+    }
+}
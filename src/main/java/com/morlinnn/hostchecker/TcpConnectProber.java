@@ -0,0 +1,58 @@
+package com.morlinnn.hostchecker;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NoRouteToHostException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+/**
+ * 阻塞式的 TCP connect 探测, 依次连接各个端口, 任意一个端口连接成功或被拒绝 (说明主机在线) 即视为可达
+ * <p>超时时间平均分给剩余的端口, 超时时间为 0 时不限制。与 {@link HostChecker#ping(String, int)} 不同, 阻塞在 Java 的 Socket 上而不是本地方法中,
+ * 在虚拟线程中等待连接时不占用平台线程</p>
+ * <p>只有超时和不可路由计为端口失败, 本机的错误 (文件描述符耗尽, 网络不可用等) 直接抛出</p>
+ */
+public class TcpConnectProber implements Prober {
+    private final int[] ports;
+
+    /**
+     * @param ports 探测的端口
+     */
+    public TcpConnectProber(int[] ports) {
+        if (ports == null || ports.length == 0) {
+            throw new IllegalArgumentException("ports must not be empty");
+        }
+        for (int port : ports) {
+            if (port < 1 || port > 65535) throw new IllegalArgumentException("invalid port " + port);
+        }
+        this.ports = ports.clone();
+    }
+
+    @Override
+    public int ping(String address, int timeout) throws IOException {
+        long start = System.nanoTime();
+        long deadline = start + timeout * 1_000_000L;
+        InetAddress inetAddress = InetAddress.getByName(address);
+        for (int i = 0; i < ports.length; i++) {
+            // 与 NioProbeEngine 相同, 0 表示不限制时间
+            int slice = 0;
+            if (timeout > 0) {
+                long remaining = (deadline - System.nanoTime()) / 1_000_000L;
+                if (remaining <= 0) break;
+                slice = (int) Math.max(1, remaining / (ports.length - i));
+            }
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(inetAddress, ports[i]), slice);
+                return (int) ((System.nanoTime() - start) / 1_000_000L);
+            } catch (ConnectException e) {
+                // 连接被拒绝, 主机在线
+                return (int) ((System.nanoTime() - start) / 1_000_000L);
+            } catch (SocketTimeoutException | NoRouteToHostException e) {
+                // 超时或不可路由, 尝试下一个端口
+            }
+        }
+        return -1;
+    }
+}
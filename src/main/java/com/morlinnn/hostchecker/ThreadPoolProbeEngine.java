@@ -0,0 +1,51 @@
+package com.morlinnn.hostchecker;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 固定线程池的探测引擎, 每个探测占用一个线程直到 {@link Prober} 返回
+ * <p>排队中的探测被取消后不再执行</p>
+ */
+public class ThreadPoolProbeEngine implements ProbeEngine {
+    private final ExecutorService executors;
+    private final Prober prober;
+
+    /**
+     * 使用 {@link HostChecker#ping(String, int)} 进行探测
+     * @param threadNum 线程数
+     */
+    public ThreadPoolProbeEngine(int threadNum) {
+        this(threadNum, HostChecker::ping);
+    }
+
+    /**
+     * @param threadNum 线程数
+     * @param prober 探测方法
+     */
+    public ThreadPoolProbeEngine(int threadNum, Prober prober) {
+        this.executors = Executors.newFixedThreadPool(threadNum);
+        this.prober = prober;
+    }
+
+    @Override
+    public CompletableFuture<ProbeResult> probe(String address, int timeout) {
+        CompletableFuture<ProbeResult> future = new CompletableFuture<>();
+        executors.execute(() -> {
+            // 排队时已经被取消
+            if (future.isDone()) return;
+            try {
+                future.complete(ProbeResult.of(prober.ping(address, timeout), "ping"));
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    @Override
+    public void close() {
+        executors.shutdown();
+    }
+}
@@ -0,0 +1,94 @@
+package com.morlinnn.hostchecker;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 把字节数组中的一段 UTF-8 内容当作 {@link CharSequence} 使用, 可以重复指向不同的内容
+ * <p>ASCII 内容直接读取字节, 不复制; 其它内容解码到内部重复使用的字符数组。
+ * 不是线程安全的, 每个线程使用自己的实例</p>
+ */
+final class Utf8Chars implements CharSequence {
+    private byte[] data;
+    private int offset;
+    private int length;
+    private boolean ascii;
+    private char[] decoded = new char[64];
+
+    /**
+     * 指向 [start, end) 的内容, 之前返回的内容失效
+     * @param data UTF-8 内容
+     * @param start 起始位置
+     * @param end 结束位置
+     * @return this, 从 0 开始索引
+     */
+    Utf8Chars set(byte[] data, int start, int end) {
+        this.data = data;
+        this.offset = start;
+        for (int i = start; i < end; i++) {
+            if (data[i] < 0) {
+                ascii = false;
+                length = decode(data, start, end);
+                return this;
+            }
+        }
+        ascii = true;
+        length = end - start;
+        return this;
+    }
+
+    /**
+     * 无效的编码解码为 U+FFFD
+     * @return 字符数
+     */
+    private int decode(byte[] data, int start, int end) {
+        // 每个字节最多解码为一个字符
+        if (decoded.length < end - start) decoded = Arrays.copyOf(decoded, Math.max(end - start, decoded.length * 2));
+        int n = 0;
+        int i = start;
+        while (i < end) {
+            int b = data[i] & 0xff;
+            int extra = b < 0x80 ? 0 : b >= 0xf0 ? 3 : b >= 0xe0 ? 2 : b >= 0xc0 ? 1 : -1;
+            // 不是起始字节或被截断
+            if (extra < 0 || i + extra >= end) {
+                decoded[n++] = '\uFFFD';
+                i++;
+                continue;
+            }
+            int codePoint = extra == 0 ? b : b & (0x3f >> extra);
+            for (int k = 1; k <= extra; k++) {
+                codePoint = codePoint << 6 | (data[i + k] & 0x3f);
+            }
+            i += extra + 1;
+            if (codePoint >= 0x10000) {
+                decoded[n++] = Character.highSurrogate(codePoint);
+                decoded[n++] = Character.lowSurrogate(codePoint);
+            } else {
+                decoded[n++] = (char) codePoint;
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) throw new IndexOutOfBoundsException("index " + index);
+        return ascii ? (char) data[offset + index] : decoded[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) throw new IndexOutOfBoundsException();
+        return toString().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return ascii ? new String(data, offset, length, StandardCharsets.ISO_8859_1) : new String(decoded, 0, length);
+    }
+}
@@ -0,0 +1,109 @@
+package com.morlinnn.hostchecker;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * 每个探测使用一个虚拟线程的探测引擎, 需要 JDK 21 及以上
+ * <p>并发数由信号量限制, 等待许可的虚拟线程不占用平台线程。
+ * 虚拟线程执行器通过反射获取, 因此项目仍然可以使用 Java 8 编译和运行,
+ * 在不支持的 JDK 上构造时抛出 {@link UnsupportedOperationException}</p>
+ * <p>探测方法必须在 Java 代码中阻塞 (Socket, sleep 等), 阻塞在本地方法中的探测 (例如 {@link HostChecker#ping(String, int)}
+ * 使用的 InetAddress.isReachable) 会一直占用平台线程, 同时进行的探测数量只有 CPU 核心数。
+ * 默认使用 {@link TcpConnectProber}</p>
+ */
+public class VirtualThreadProbeEngine implements ProbeEngine {
+    private final ExecutorService executors;
+    private final Semaphore permits;
+    private final Prober prober;
+    private final String method;
+
+    /**
+     * 使用 {@link TcpConnectProber} 探测默认端口 {@link NioProbeEngine#DEFAULT_PORTS}
+     * @param maxInFlight 同时进行的探测数量上限
+     */
+    public VirtualThreadProbeEngine(int maxInFlight) {
+        this(maxInFlight, NioProbeEngine.DEFAULT_PORTS);
+    }
+
+    /**
+     * 使用 {@link TcpConnectProber} 探测指定的端口
+     * @param maxInFlight 同时进行的探测数量上限
+     * @param ports 探测的端口
+     */
+    public VirtualThreadProbeEngine(int maxInFlight, int[] ports) {
+        this(maxInFlight, new TcpConnectProber(ports), "tcp");
+    }
+
+    /**
+     * @param maxInFlight 同时进行的探测数量上限
+     * @param prober 探测方法, 不能阻塞在本地方法中
+     */
+    public VirtualThreadProbeEngine(int maxInFlight, Prober prober) {
+        this(maxInFlight, prober, "ping");
+    }
+
+    private VirtualThreadProbeEngine(int maxInFlight, Prober prober, String method) {
+        if (maxInFlight < 1) throw new IllegalArgumentException("maxInFlight must be positive");
+        this.executors = newVirtualThreadPerTaskExecutor();
+        this.permits = new Semaphore(maxInFlight);
+        this.prober = prober;
+        this.method = method;
+    }
+
+    /**
+     * @return 当前 JDK 是否支持虚拟线程
+     */
+    public static boolean isSupported() {
+        try {
+            newVirtualThreadPerTaskExecutor().shutdown();
+            return true;
+        } catch (UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new UnsupportedOperationException("virtual threads require JDK 21+");
+        } catch (InvocationTargetException e) {
+            // JDK 19/20 中虚拟线程为预览特性, 未开启时抛出 UnsupportedOperationException
+            throw new UnsupportedOperationException("virtual threads are not available", e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new UnsupportedOperationException("virtual threads are not available", e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<ProbeResult> probe(String address, int timeout) {
+        CompletableFuture<ProbeResult> future = new CompletableFuture<>();
+        executors.execute(() -> {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                future.completeExceptionally(e);
+                return;
+            }
+            try {
+                // 等待许可时已经被取消
+                if (future.isDone()) return;
+                future.complete(ProbeResult.of(prober.ping(address, timeout), method));
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            } finally {
+                permits.release();
+            }
+        });
+        return future;
+    }
+
+    @Override
+    public void close() {
+        executors.shutdown();
+    }
+}
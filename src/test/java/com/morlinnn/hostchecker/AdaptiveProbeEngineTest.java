@@ -0,0 +1,101 @@
+package com.morlinnn.hostchecker;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveProbeEngineTest {
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void congestionTimeoutsAreRetriedAtTheLowerLimit() throws Exception {
+        // 同时超过 8 个探测时, 超出的探测像被防火墙丢弃一样超时
+        CongestedEngine inner = new CongestedEngine(8, null);
+        AdaptiveProbeEngine engine = new AdaptiveProbeEngine(inner, 4, 64);
+
+        List<ProbeResult> results = probeAll(engine, 400);
+
+        assertFalse(engine.getDecreases().isEmpty());
+        assertTrue(engine.getRetries() > 0);
+        long timeouts = results.stream().filter(result -> !result.isReachable()).count();
+        assertTrue(
+                timeouts < inner.timeouts.get(),
+                timeouts + " timeouts returned, " + inner.timeouts.get() + " timeouts observed"
+        );
+    }
+
+    @Test
+    void deadAddressesStillTimeOut() throws Exception {
+        CongestedEngine inner = new CongestedEngine(Integer.MAX_VALUE, "10.0.0.");
+        AdaptiveProbeEngine engine = new AdaptiveProbeEngine(inner, 4, 64);
+
+        List<ProbeResult> results = probeAll(engine, 200);
+
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(i % 10 != 0, results.get(i).isReachable(), "address " + i);
+        }
+    }
+
+    private List<ProbeResult> probeAll(AdaptiveProbeEngine engine, int count) throws Exception {
+        List<CompletableFuture<ProbeResult>> futures = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            // 每 10 个地址中有一个本身失效
+            futures.add(engine.probe((i % 10 == 0 ? "10.0.0." : "10.1.0.") + i, 100));
+        }
+        List<ProbeResult> results = new ArrayList<>();
+        for (CompletableFuture<ProbeResult> future : futures) {
+            results.add(future.get(30, TimeUnit.SECONDS));
+        }
+        return results;
+    }
+
+    /**
+     * 每个探测 2ms 后完成, 同时进行的探测超过 capacity 或者地址以 deadPrefix 开头时超时
+     */
+    private class CongestedEngine implements ProbeEngine {
+        final int capacity;
+        final String deadPrefix;
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger timeouts = new AtomicInteger();
+
+        CongestedEngine(int capacity, String deadPrefix) {
+            this.capacity = capacity;
+            this.deadPrefix = deadPrefix;
+        }
+
+        @Override
+        public CompletableFuture<ProbeResult> probe(String address, int timeout) {
+            CompletableFuture<ProbeResult> future = new CompletableFuture<>();
+            boolean congested = inFlight.incrementAndGet() > capacity;
+            boolean dead = deadPrefix != null && address.startsWith(deadPrefix);
+            scheduler.schedule(() -> {
+                inFlight.decrementAndGet();
+                if (congested || dead) {
+                    timeouts.incrementAndGet();
+                    future.complete(ProbeResult.timeout());
+                } else {
+                    future.complete(ProbeResult.reachable(2, "test"));
+                }
+            }, 2, TimeUnit.MILLISECONDS);
+            return future;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.morlinnn.hostchecker;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AddressFilterTest {
+    @Test
+    void cidrRangesMatchByPrefix() {
+        AddressFilter filter = addresses("10.0.0.0/8", "192.168.1.0/24", "fe80::/10");
+
+        assertTrue(filter.filterAddress("10.255.0.1"));
+        assertTrue(filter.filterAddress("192.168.1.200"));
+        assertFalse(filter.filterAddress("192.168.2.1"));
+        assertTrue(filter.filterAddress("fe80::1"));
+        assertFalse(filter.filterAddress("fec0::1"));
+    }
+
+    @Test
+    void v4MappedRangeUsesTheLast32Bits() {
+        assertTrue(addresses("::ffff:0:0/96").filterAddress("1.2.3.4"));
+
+        AddressFilter filter = addresses("::ffff:1.2.3.0/120");
+        assertTrue(filter.filterAddress("1.2.3.4"));
+        assertTrue(filter.filterAddress("::ffff:1.2.3.4"));
+        assertFalse(filter.filterAddress("1.2.4.4"));
+    }
+
+    @Test
+    void exactAddressesMatchWholeRanges() {
+        AddressFilter filter = addresses("bad.example", "other", "10.0.0.1");
+
+        assertTrue(filter.filterAddress("bad.example"));
+        assertTrue(filter.filterAddress("x bad.example y", 2, 13));
+        assertFalse(filter.filterAddress("x bad.example y", 2, 12));
+        assertFalse(filter.filterAddress("bad.exampl"));
+        assertTrue(filter.filterAddress("other"));
+        assertTrue(filter.filterAddress("10.0.0.1"));
+    }
+
+    @Test
+    void invalidCidrIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> addresses("10.0.0.0/33"));
+        assertThrows(IllegalArgumentException.class, () -> addresses("::1/129"));
+        assertThrows(IllegalArgumentException.class, () -> addresses("10.0.0.0/x"));
+        // 短于 96 位的前缀超出了 IPv4 映射地址的范围
+        assertThrows(IllegalArgumentException.class, () -> addresses("::ffff:1.2.3.4/8"));
+    }
+
+    @Test
+    void regexpsWithTheSameGroupNameAreCompiledSeparately() {
+        AddressFilter filter = new AddressFilter(null, new HashSet<>(Arrays.asList(
+                "(?<x>a+)\\.example", "(?<x>b+)\\.test", "(?<=c)d", "(e)\\1"
+        )));
+
+        assertTrue(filter.filterAddress("aa.example"));
+        assertTrue(filter.filterAddress("bb.test"));
+        assertTrue(filter.filterAddress("ee"));
+        assertFalse(filter.filterAddress("cc.example"));
+    }
+
+    private static AddressFilter addresses(String... addresses) {
+        Set<String> set = new HashSet<>(Arrays.asList(addresses));
+        return new AddressFilter(set, Collections.emptySet());
+    }
+}
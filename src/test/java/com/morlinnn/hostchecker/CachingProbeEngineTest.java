@@ -0,0 +1,94 @@
+package com.morlinnn.hostchecker;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CachingProbeEngineTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void timeoutIsOnlyReusedForTheSameOrShorterTimeout() {
+        TimeoutEngine inner = new TimeoutEngine();
+        CachingProbeEngine engine = new CachingProbeEngine(inner, new ProbeCache(dir.resolve("cache")));
+
+        engine.probe("10.0.0.1", 200).join();
+        engine.probe("10.0.0.1", 200).join();
+        engine.probe("10.0.0.1", 100).join();
+        assertEquals(1, inner.probes.get());
+
+        engine.probe("10.0.0.1", 5000).join();
+        assertEquals(2, inner.probes.get());
+
+        // 0 表示不限制, 比任何有限的超时时间都长
+        engine.probe("10.0.0.1", 0).join();
+        assertEquals(3, inner.probes.get());
+        engine.probe("10.0.0.1", 0).join();
+        engine.probe("10.0.0.1", 60000).join();
+        assertEquals(3, inner.probes.get());
+    }
+
+    @Test
+    void shortenedTimeoutIsNotCached() {
+        TimeoutEngine inner = new TimeoutEngine();
+        ProbeCache cache = new ProbeCache(dir.resolve("cache"));
+        CachingProbeEngine engine = new CachingProbeEngine(inner, cache);
+
+        assertFalse(engine.probeShortened("10.0.0.1", 300).join().isReachable());
+
+        assertEquals(0, cache.size());
+        assertEquals(-1, cache.lastChecked("10.0.0.1"));
+    }
+
+    @Test
+    void expiredEntriesKeepTheirCheckTime() throws Exception {
+        Path file = dir.resolve("cache");
+        ProbeCache cache = new ProbeCache(file, 1, 1, 100);
+        cache.put("10.0.0.1", ProbeResult.timeout(), 1000);
+        long checked = cache.lastChecked("10.0.0.1");
+        cache.save();
+        Thread.sleep(5);
+
+        ProbeCache loaded = new ProbeCache(file, 1, 1, 100);
+        loaded.load();
+
+        assertNull(loaded.get("10.0.0.1", 1000));
+        assertEquals(checked, loaded.lastChecked("10.0.0.1"));
+    }
+
+    @Test
+    void lastCheckedDoesNotChangeEviction() {
+        ProbeCache cache = new ProbeCache(dir.resolve("cache"), 60000, 60000, 2);
+        cache.put("10.0.0.1", ProbeResult.reachable(1, "test"), 1000);
+        cache.put("10.0.0.2", ProbeResult.reachable(1, "test"), 1000);
+        cache.lastChecked("10.0.0.1");
+
+        cache.put("10.0.0.3", ProbeResult.reachable(1, "test"), 1000);
+
+        assertEquals(-1, cache.lastChecked("10.0.0.1"));
+        assertNotNull(cache.get("10.0.0.2", 1000));
+    }
+
+    /**
+     * 所有地址都超时, 记录探测次数
+     */
+    private static class TimeoutEngine implements ProbeEngine {
+        final AtomicInteger probes = new AtomicInteger();
+
+        @Override
+        public CompletableFuture<ProbeResult> probe(String address, int timeout) {
+            probes.incrementAndGet();
+            return CompletableFuture.completedFuture(ProbeResult.timeout());
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
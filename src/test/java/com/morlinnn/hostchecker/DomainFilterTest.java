@@ -0,0 +1,52 @@
+package com.morlinnn.hostchecker;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DomainFilterTest {
+    @Test
+    void rulesMatchDomainsAndSubdomainsIgnoringCase() {
+        DomainFilter filter = new DomainFilter(
+                Arrays.asList("Example.com", "*.ads.test", "Bücher.de"),
+                Collections.singletonList("keep.example.com")
+        );
+
+        assertTrue(filter.isExcluded("example.com"));
+        assertTrue(filter.isExcluded("WWW.EXAMPLE.COM."));
+        assertTrue(filter.isExcluded("x.ads.test"));
+        assertFalse(filter.isExcluded("ads.test"));
+        assertFalse(filter.isExcluded("example.org"));
+        assertFalse(filter.isExcluded("notexample.com"));
+        assertTrue(filter.isExcluded("shop.BÜCHER.de"));
+
+        assertTrue(filter.isIncluded("a.keep.example.com"));
+        assertFalse(filter.isIncluded("example.com"));
+    }
+
+    @Test
+    void rangesAreMatchedInPlace() {
+        DomainFilter filter = new DomainFilter(Collections.singletonList("example.com"), null);
+        String line = "127.0.0.1 a.example.com b.example.org";
+
+        assertTrue(filter.isExcluded(line, 10, 23));
+        assertFalse(filter.isExcluded(line, 24, 37));
+    }
+
+    @Test
+    void manyChildrenAreKept() {
+        String[] rules = new String[100];
+        for (int i = 0; i < rules.length; i++) {
+            rules[i] = "host" + i + ".test";
+        }
+        DomainFilter filter = new DomainFilter(Arrays.asList(rules), null);
+
+        for (int i = 0; i < rules.length; i++) {
+            assertTrue(filter.isExcluded("HOST" + i + ".test"));
+        }
+        assertFalse(filter.isExcluded("host100.test"));
+    }
+}
@@ -0,0 +1,83 @@
+package com.morlinnn.hostchecker;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HostCheckerReloadTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void appendedLinesAreTheOnlyChanges() throws IOException {
+        write("\uFEFF# hosts\r\n10.0.0.1 a\r\n10.0.0.2 b");
+        HostChecker checker = load();
+
+        write("\uFEFF# hosts\r\n10.0.0.1 a\r\n10.0.0.2 b\r\n10.0.0.3 c\r\n");
+
+        // 没有换行符的最后一行之后追加了内容, 重新解析但内容没有变化
+        assertEquals(Collections.singleton(4), checker.reloadChanged());
+        assertSameAsFreshLoad(checker);
+    }
+
+    @Test
+    void changesAfterASpliceSaveAreFoundInTheSavedFile() throws IOException {
+        write("10.0.0.1 a\n10.0.0.2 b\n10.0.0.3 c\n10.0.0.4 d\n");
+        HostChecker checker = load();
+        checker.removeFromIndexes(new HashSet<>(Arrays.asList(1, 3)));
+        checker.save();
+
+        write("10.0.0.2 b\n10.0.0.4 dd\n10.0.0.5 e\n");
+
+        assertEquals(new TreeSet<>(Arrays.asList(2, 3)), new TreeSet<>(checker.reloadChanged()));
+        assertSameAsFreshLoad(checker);
+        checker.removeFromIndexes(Collections.singleton(2));
+        checker.save();
+        assertEquals("10.0.0.2 b\n10.0.0.5 e\n", read());
+    }
+
+    @Test
+    void unsavedRemovalsAreCheckedAgain() throws IOException {
+        write("10.0.0.1 a\n10.0.0.2 b\n10.0.0.3 c\n");
+        HostChecker checker = load();
+        checker.removeFromIndexes(Collections.singleton(2));
+
+        write("10.0.0.1 a\n10.0.0.2 b\n10.0.0.3 c\n10.0.0.4 d\n");
+
+        assertEquals(new TreeSet<>(Arrays.asList(2, 4)), new TreeSet<>(checker.reloadChanged()));
+        assertSameAsFreshLoad(checker);
+    }
+
+    private HostChecker load() throws IOException {
+        HostChecker checker = new HostChecker(dir.toString(), "hosts", new AddressFilter(new HashSet<>(), new HashSet<>()));
+        checker.setBackup(false);
+        return checker;
+    }
+
+    private void assertSameAsFreshLoad(HostChecker checker) throws IOException {
+        HostChecker fresh = load();
+        assertEquals(fresh.getValidLineCount(), checker.getValidLineCount());
+        for (int i = 0; i < fresh.getValidLineCount(); i++) {
+            assertEquals(fresh.getLine(i), checker.getLine(i));
+            assertEquals(fresh.lineHash(fresh.getLine(i)), checker.lineHash(checker.getLine(i)));
+        }
+    }
+
+    private void write(String content) throws IOException {
+        Files.write(dir.resolve("hosts"), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String read() throws IOException {
+        return new String(Files.readAllBytes(dir.resolve("hosts")), StandardCharsets.UTF_8);
+    }
+}
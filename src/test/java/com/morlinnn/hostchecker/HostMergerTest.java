@@ -0,0 +1,99 @@
+package com.morlinnn.hostchecker;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HostMergerTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void duplicatesAreDroppedAndEachAddressIsProbedOnce() throws Exception {
+        CountingEngine engine = new CountingEngine();
+        HostMerger merger = merger(
+                HostMerger.Source.string("a", "10.0.0.1 A.example b.example\n10.1.0.1 c.example\n"),
+                HostMerger.Source.string("b", "# comment\n10.0.0.1 a.EXAMPLE d.example\n10.1.0.1 C.example\n10.1.0.2 e.example\n")
+        );
+
+        merger.merge(engine, 100, null);
+
+        assertEquals(
+                Arrays.asList("# source: a", "10.1.0.1 c.example", "# source: b", "10.1.0.2 e.example"),
+                Files.readAllLines(dir.resolve("merged"), StandardCharsets.UTF_8)
+        );
+        assertEquals(3, engine.probes.size());
+        for (AtomicInteger count : engine.probes.values()) {
+            assertEquals(1, count.get());
+        }
+        assertFalse(Files.exists(dir.resolve("merged.merging")));
+        assertEquals(3, merger.getMetrics().getProbeAddresses());
+        assertTrue(merger.toJson().contains("\"distinctEntries\":5"), merger.toJson());
+        assertTrue(
+                merger.toJson().contains("\"entries\":4,\"duplicates\":2,\"duplicatesOf\":{\"a\":2},\"written\":2,\"removed\":1"),
+                merger.toJson()
+        );
+    }
+
+    @Test
+    void filteredAddressesAreKeptWithoutProbing() throws Exception {
+        CountingEngine engine = new CountingEngine();
+        HostMerger merger = new HostMerger(
+                Arrays.asList(HostMerger.Source.string("a", "10.0.0.1 a.example\n127.0.0.1 localhost\n")),
+                dir.toString(),
+                "merged",
+                AddressFilter.getLoopbackFilter(),
+                null,
+                '#'
+        );
+        merger.setReportMode(ProbeReporter.Mode.QUIET);
+
+        merger.merge(engine, 100, null);
+
+        assertEquals(
+                Arrays.asList("# source: a", "127.0.0.1 localhost"),
+                Files.readAllLines(dir.resolve("merged"), StandardCharsets.UTF_8)
+        );
+        assertEquals(new HashSet<>(Arrays.asList("10.0.0.1")), engine.probes.keySet());
+    }
+
+    private HostMerger merger(HostMerger.Source... sources) {
+        List<HostMerger.Source> list = Arrays.asList(sources);
+        HostMerger merger = new HostMerger(
+                list, dir.toString(), "merged", new AddressFilter(new HashSet<>(), new HashSet<>()), null, '#'
+        );
+        merger.setReportMode(ProbeReporter.Mode.QUIET);
+        return merger;
+    }
+
+    /**
+     * 以 10.0. 开头的地址超时, 记录每个地址的探测次数
+     */
+    private static class CountingEngine implements ProbeEngine {
+        final Map<String, AtomicInteger> probes = new ConcurrentHashMap<>();
+
+        @Override
+        public CompletableFuture<ProbeResult> probe(String address, int timeout) {
+            probes.computeIfAbsent(address, k -> new AtomicInteger()).incrementAndGet();
+            return CompletableFuture.completedFuture(
+                    address.startsWith("10.0.") ? ProbeResult.timeout() : ProbeResult.reachable(1, "test")
+            );
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.morlinnn.hostchecker;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 在 127.0.0.1 上的监听端口, 关闭的端口和积压队列已满 (丢弃 SYN) 的端口上测试 {@link NioProbeEngine}
+ */
+class NioProbeEngineTest {
+    private static final InetAddress LOOPBACK = InetAddress.getLoopbackAddress();
+
+    private final List<AutoCloseable> resources = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() throws Exception {
+        for (AutoCloseable resource : resources) {
+            resource.close();
+        }
+    }
+
+    @Test
+    void listeningPortIsReachable() throws Exception {
+        ServerSocket server = listen(50);
+        NioProbeEngine engine = engine(server.getLocalPort(), 10, true);
+
+        ProbeResult result = engine.probe("127.0.0.1", 2000).get(5, TimeUnit.SECONDS);
+
+        assertTrue(result.isReachable());
+        assertEquals("tcp:" + server.getLocalPort(), result.getMethod());
+    }
+
+    @Test
+    void hostnameIsResolved() throws Exception {
+        ServerSocket server = listen(50);
+        NioProbeEngine engine = engine(server.getLocalPort(), 10, true);
+
+        assertTrue(engine.probe("localhost", 2000).get(5, TimeUnit.SECONDS).isReachable());
+    }
+
+    @Test
+    void refusedPortIsReachableUnlessDisabled() throws Exception {
+        int port = closedPort();
+
+        ProbeResult refused = engine(port, 10, true).probe("127.0.0.1", 2000).get(5, TimeUnit.SECONDS);
+        assertTrue(refused.isReachable());
+        assertEquals("tcp:" + port + "/refused", refused.getMethod());
+
+        ProbeResult timeout = engine(port, 10, false).probe("127.0.0.1", 2000).get(5, TimeUnit.SECONDS);
+        assertFalse(timeout.isReachable());
+    }
+
+    @Test
+    void unansweredConnectTimesOut() throws Exception {
+        int port = saturatedPort();
+        NioProbeEngine engine = engine(port, 10, true);
+
+        long start = System.nanoTime();
+        ProbeResult result = engine.probe("127.0.0.1", 300).get(5, TimeUnit.SECONDS);
+        long elapsed = (System.nanoTime() - start) / 1_000_000L;
+
+        assertFalse(result.isReachable());
+        assertTrue(elapsed >= 250, "timed out after " + elapsed + "ms");
+    }
+
+    @Test
+    void cancellationReleasesTheSlot() throws Exception {
+        // 只有一个并发位置, 第二个探测只能在第一个释放位置后开始
+        NioProbeEngine engine = engine(saturatedPort(), 1, true);
+
+        CompletableFuture<ProbeResult> hanging = engine.probe("127.0.0.1", 60000);
+        CompletableFuture<ProbeResult> queued = engine.probe("127.0.0.1", 300);
+        Thread.sleep(500);
+        assertFalse(hanging.isDone());
+        assertFalse(queued.isDone());
+
+        assertTrue(hanging.cancel(true));
+        assertThrows(CancellationException.class, hanging::join);
+        assertFalse(queued.get(5, TimeUnit.SECONDS).isReachable());
+    }
+
+    @Test
+    void localErrorCompletesExceptionally() throws Exception {
+        // 组播地址不能用于 TCP, 本机直接返回 "Network is unreachable", 不能当作主机不可达
+        NioProbeEngine engine = engine(80, 10, true);
+
+        CompletableFuture<ProbeResult> future = engine.probe("224.0.0.1", 2000);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(SocketException.class, e.getCause());
+    }
+
+    @Test
+    void closedEngineRejectsProbes() throws Exception {
+        NioProbeEngine engine = engine(80, 10, true);
+        engine.close();
+
+        CompletableFuture<ProbeResult> future = engine.probe("127.0.0.1", 100);
+        assertTrue(future.isCompletedExceptionally());
+    }
+
+    private NioProbeEngine engine(int port, int maxInFlight, boolean refusedAsReachable) throws IOException {
+        NioProbeEngine engine = new NioProbeEngine(new int[]{port}, maxInFlight, refusedAsReachable);
+        resources.add(engine);
+        return engine;
+    }
+
+    private ServerSocket listen(int backlog) throws IOException {
+        ServerSocket server = new ServerSocket(0, backlog, LOOPBACK);
+        resources.add(server);
+        return server;
+    }
+
+    private static int closedPort() throws IOException {
+        try (ServerSocket server = new ServerSocket(0, 1, LOOPBACK)) {
+            return server.getLocalPort();
+        }
+    }
+
+    /**
+     * 不接受连接的端口, 填满积压队列后新的 SYN 被丢弃, 连接既不成功也不被拒绝
+     */
+    private int saturatedPort() throws IOException {
+        ServerSocket server = listen(1);
+        for (int i = 0; i < 64; i++) {
+            Socket socket = new Socket();
+            resources.add(socket);
+            try {
+                socket.connect(new InetSocketAddress(LOOPBACK, server.getLocalPort()), 200);
+            } catch (SocketTimeoutException e) {
+                return server.getLocalPort();
+            }
+        }
+        throw new IllegalStateException("backlog is never full");
+    }
+}
@@ -0,0 +1,57 @@
+package com.morlinnn.hostchecker;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelLoaderTest {
+    private static final byte[] ANNOTATION = {'#'};
+
+    @Test
+    void everyLineSeparatorSplitsIntoTheSameLinesAsSequentialLoading() {
+        for (String separator : new String[]{"\n", "\r\n", "\r"}) {
+            byte[] data = content(separator);
+            ParallelLoader.Chunk chunk = ParallelLoader.load(data, 0, data.length, ANNOTATION);
+            LineStore lines = new LineStore(data, 0, data.length);
+
+            assertEquals(lines.size(), chunk.lines.size(), "separator " + separator.replace("\r", "\\r").replace("\n", "\\n"));
+            for (int i = 0; i < lines.size(); i++) {
+                assertEquals(lines.start(i), chunk.lines.start(i));
+                assertEquals(lines.end(i), chunk.lines.end(i));
+            }
+            // 每 3 行中有一行注释
+            assertEquals(lines.size() - (lines.size() + 2) / 3, chunk.validLines.size());
+        }
+    }
+
+    @Test
+    void chunksStartAfterAnyLineSeparator() {
+        byte[] data = "ab\rcd\r\nef\ngh".getBytes(StandardCharsets.US_ASCII);
+
+        assertEquals(3, ParallelLoader.alignToLineStart(data, 0, data.length));
+        // "\r\n" 不会被分到两个块中
+        assertEquals(7, ParallelLoader.alignToLineStart(data, 4, data.length));
+        assertEquals(7, ParallelLoader.alignToLineStart(data, 6, data.length));
+        assertEquals(10, ParallelLoader.alignToLineStart(data, 7, data.length));
+        assertEquals(data.length, ParallelLoader.alignToLineStart(data, 10, data.length));
+    }
+
+    /**
+     * 超过多个块大小的内容, 使 "\r\n" 有机会跨过块的边界
+     */
+    private static byte[] content(String separator) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; builder.length() < ParallelLoader.PARALLEL_THRESHOLD; i++) {
+            if (i % 3 == 0) {
+                builder.append("# comment ").append(i);
+            } else {
+                builder.append("10.").append(i >>> 16 & 0xff).append('.').append(i >>> 8 & 0xff).append('.').append(i & 0xff)
+                        .append(" host").append(i).append(".example");
+            }
+            builder.append(separator);
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,223 @@
+package com.morlinnn.hostchecker;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 在 127.0.0.1 (监听), 127.0.0.2 (积压队列已满, 超时) 和 127.0.0.3 (拒绝连接) 的同一端口上,
+ * 由独立的 worker 进程检查各个分片再合并
+ */
+class ShardedCheckTest {
+    private static final int SHARDS = 3;
+    private static final ProbeEngine REACHABLE = new ProbeEngine() {
+        @Override
+        public CompletableFuture<ProbeResult> probe(String address, int timeout) {
+            return CompletableFuture.completedFuture(ProbeResult.reachable(1, "test"));
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    @TempDir
+    Path dir;
+
+    private final List<AutoCloseable> resources = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() throws Exception {
+        for (AutoCloseable resource : resources) {
+            resource.close();
+        }
+    }
+
+    @Test
+    void workerProcessesCheckEveryShard() throws Exception {
+        int port = listenOnLoopback();
+        write(
+                "# shards\n"
+                        + "127.0.0.1 a.example\n"
+                        + "127.0.0.2 b.example\n"
+                        + "127.0.0.3 c.example\n"
+                        + "127.0.0.2 d.example\n"
+                        + "127.0.0.1 e.example\n"
+        );
+        Path shardDir = dir.resolve("shards");
+        List<Path> manifests = ShardedCheck.split(load(), shardDir, SHARDS);
+
+        List<Process> workers = new ArrayList<>();
+        for (Path manifest : manifests) {
+            workers.add(startWorker(manifest, port));
+        }
+        for (Process worker : workers) {
+            assertTrue(worker.waitFor(60, TimeUnit.SECONDS), "worker did not finish");
+            assertEquals(0, worker.exitValue());
+        }
+        ShardedCheck.merge(load(), shardDir);
+
+        assertEquals(
+                Arrays.asList("# shards", "127.0.0.1 a.example", "127.0.0.3 c.example", "127.0.0.1 e.example"),
+                Files.readAllLines(dir.resolve("hosts"), StandardCharsets.UTF_8)
+        );
+    }
+
+    @Test
+    void renamedResultIsRejected() throws Exception {
+        Path shardDir = checkAllShards(SHARDS);
+        Files.copy(
+                shardDir.resolve(ShardedCheck.resultName(0)),
+                shardDir.resolve(ShardedCheck.resultName(1)),
+                StandardCopyOption.REPLACE_EXISTING
+        );
+
+        IOException e = assertThrows(IOException.class, () -> ShardedCheck.merge(load(), shardDir));
+        assertTrue(e.getMessage().contains("result of shard 0"), e.getMessage());
+    }
+
+    @Test
+    void resultsOfDifferentSplitsAreRejected() throws Exception {
+        Path shardDir = checkAllShards(SHARDS);
+        Path otherDir = checkAllShards(SHARDS + 1);
+        Files.copy(
+                otherDir.resolve(ShardedCheck.resultName(2)),
+                shardDir.resolve(ShardedCheck.resultName(2)),
+                StandardCopyOption.REPLACE_EXISTING
+        );
+
+        IOException e = assertThrows(IOException.class, () -> ShardedCheck.merge(load(), shardDir));
+        assertTrue(e.getMessage().contains("split into " + (SHARDS + 1)), e.getMessage());
+    }
+
+    @Test
+    void malformedFilesAreRejectedBeforeProbing() throws Exception {
+        Path shardDir = checkAllShards(SHARDS);
+        Path manifest = shardDir.resolve(ShardedCheck.manifestName(0));
+        // 结尾的空行被忽略
+        Files.write(manifest, "\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        ShardedCheck.work(manifest, REACHABLE, 100);
+
+        Files.write(manifest, "127.0.0.9\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        ProbeEngine unused = new ProbeEngine() {
+            @Override
+            public CompletableFuture<ProbeResult> probe(String address, int timeout) {
+                throw new AssertionError("probed " + address);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        IOException e = assertThrows(IOException.class, () -> ShardedCheck.work(manifest, unused, 100));
+        assertTrue(e.getMessage().startsWith("Not a shard manifest"), e.getMessage());
+
+        Files.write(manifest, "# hostchecker-shard 0\n".getBytes(StandardCharsets.UTF_8));
+        assertThrows(IOException.class, () -> ShardedCheck.work(manifest, unused, 100));
+
+        Path result = shardDir.resolve(ShardedCheck.resultName(1));
+        String header = Files.readAllLines(result, StandardCharsets.UTF_8).get(0);
+        Files.write(result, (header + "\n127.0.0.9\tx\n# done\n").getBytes(StandardCharsets.UTF_8));
+        e = assertThrows(IOException.class, () -> ShardedCheck.merge(load(), shardDir));
+        assertTrue(e.getMessage().startsWith("Not a shard result"), e.getMessage());
+    }
+
+    /**
+     * 在当前进程中检查所有分片, 所有地址都可达
+     */
+    private Path checkAllShards(int shards) throws Exception {
+        write("127.0.0.1 a.example\n127.0.0.2 b.example\n127.0.0.3 c.example\n");
+        Path shardDir = dir.resolve("shards-" + shards);
+        for (Path manifest : ShardedCheck.split(load(), shardDir, shards)) {
+            ShardedCheck.work(manifest, REACHABLE, 100);
+        }
+        return shardDir;
+    }
+
+    private Process startWorker(Path manifest, int port) throws Exception {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        String classes = Paths.get(Main.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+        return new ProcessBuilder(
+                java, "-cp", classes, Main.class.getName(),
+                manifest.getParent().toString(), manifest.getFileName().toString(),
+                "-worker", "-engine", "nio", "-ports", String.valueOf(port), "-timeout", "500"
+        )
+                .redirectErrorStream(true)
+                .redirectOutput(dir.resolve(manifest.getFileName() + ".log").toFile())
+                .start();
+    }
+
+    /**
+     * 在 127.0.0.1 和 127.0.0.2 的同一端口上监听, 127.0.0.2 的积压队列被填满
+     * @return 端口
+     */
+    private int listenOnLoopback() throws IOException {
+        InetAddress second = InetAddress.getByName("127.0.0.2");
+        for (int attempt = 0; attempt < 10; attempt++) {
+            ServerSocket first = listen(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 50);
+            try {
+                ServerSocket saturated = listen(new InetSocketAddress(second, first.getLocalPort()), 1);
+                saturate(saturated);
+                return first.getLocalPort();
+            } catch (BindException e) {
+                // 端口在 127.0.0.2 上已被占用, 重新选择
+            }
+        }
+        throw new IllegalStateException("no port is free on both loopback addresses");
+    }
+
+    private ServerSocket listen(InetSocketAddress address, int backlog) throws IOException {
+        ServerSocket server = new ServerSocket();
+        resources.add(server);
+        server.bind(address, backlog);
+        return server;
+    }
+
+    /**
+     * 填满积压队列后新的 SYN 被丢弃, 连接既不成功也不被拒绝
+     */
+    private void saturate(ServerSocket server) throws IOException {
+        for (int i = 0; i < 64; i++) {
+            Socket socket = new Socket();
+            resources.add(socket);
+            try {
+                socket.connect(server.getLocalSocketAddress(), 200);
+            } catch (SocketTimeoutException e) {
+                return;
+            }
+        }
+        throw new IllegalStateException("backlog is never full");
+    }
+
+    private HostChecker load() throws IOException {
+        HostChecker checker = new HostChecker(dir.toString(), "hosts", new AddressFilter(new HashSet<>(), new HashSet<>()));
+        checker.setBackup(false);
+        return checker;
+    }
+
+    private void write(String content) throws IOException {
+        Files.write(dir.resolve("hosts"), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,87 @@
+package com.morlinnn.hostchecker;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TcpConnectProberTest {
+    private static final InetAddress LOOPBACK = InetAddress.getLoopbackAddress();
+
+    private final List<AutoCloseable> resources = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() throws Exception {
+        for (AutoCloseable resource : resources) {
+            resource.close();
+        }
+    }
+
+    @Test
+    void listeningAndRefusedPortsAreReachable() throws Exception {
+        ServerSocket server = listen(50);
+        int closed;
+        try (ServerSocket socket = new ServerSocket(0, 1, LOOPBACK)) {
+            closed = socket.getLocalPort();
+        }
+
+        assertTrue(new TcpConnectProber(new int[]{server.getLocalPort()}).ping("127.0.0.1", 2000) >= 0);
+        assertTrue(new TcpConnectProber(new int[]{closed}).ping("127.0.0.1", 2000) >= 0);
+    }
+
+    @Test
+    void unansweredPortTimesOutAndLeavesTimeForTheNext() throws Exception {
+        int saturated = saturatedPort();
+        ServerSocket server = listen(50);
+
+        assertEquals(-1, new TcpConnectProber(new int[]{saturated}).ping("127.0.0.1", 300));
+        // 第一个端口只使用一半的超时时间
+        assertTrue(new TcpConnectProber(new int[]{saturated, server.getLocalPort()}).ping("127.0.0.1", 600) >= 0);
+    }
+
+    @Test
+    void zeroTimeoutIsUnbounded() throws Exception {
+        ServerSocket server = listen(50);
+
+        assertTrue(new TcpConnectProber(new int[]{server.getLocalPort()}).ping("127.0.0.1", 0) >= 0);
+    }
+
+    @Test
+    void localErrorIsThrown() {
+        // 组播地址不能用于 TCP, 本机直接返回 "Network is unreachable", 不能当作主机不可达
+        assertThrows(SocketException.class, () -> new TcpConnectProber(new int[]{80}).ping("224.0.0.1", 2000));
+    }
+
+    private ServerSocket listen(int backlog) throws IOException {
+        ServerSocket server = new ServerSocket(0, backlog, LOOPBACK);
+        resources.add(server);
+        return server;
+    }
+
+    /**
+     * 不接受连接的端口, 填满积压队列后新的 SYN 被丢弃
+     */
+    private int saturatedPort() throws IOException {
+        ServerSocket server = listen(1);
+        for (int i = 0; i < 64; i++) {
+            Socket socket = new Socket();
+            resources.add(socket);
+            try {
+                socket.connect(new InetSocketAddress(LOOPBACK, server.getLocalPort()), 200);
+            } catch (SocketTimeoutException e) {
+                return server.getLocalPort();
+            }
+        }
+        throw new IllegalStateException("backlog is never full");
+    }
+}